@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.io.File;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import org.eclipse.ecf.core.util.IClassResolver;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Compares two ways of looking up the class resolver of a protocol. The old
+ * way, used by createOIS for every received message, opens and closes a
+ * ServiceTracker. The new way is {@link Activator#getClassResolver(String)}.
+ *
+ * Launches the OSGi framework which is found on the class path, e.g.
+ * org.eclipse.osgi or org.apache.felix.framework, registers resolvers with
+ * different rankings for a test protocol and prints the median time per
+ * lookup of both ways.
+ *
+ * The benchmark is not part of the bundle, compile it together with the
+ * bundle sources and run it with the framework and the bundle's dependencies
+ * on the class path.
+ *
+ * Usage: ClassResolverBenchmark [-lookups n] [-resolvers n] [-rounds n]
+ */
+public final class ClassResolverBenchmark {
+
+	private static final String PROTOCOL = "benchmark";
+
+	// the same property and filter as the Activator uses
+	private static final String CLASS_RESOLVER_PROP = "ch.ethz.iks.r_osgi.transport.http.classResolverProtocol";
+
+	private static final String CLASS_RESOLVER_FILTER = "(&(objectClass=org.eclipse.ecf.core.util.IClassResolver)("
+			+ CLASS_RESOLVER_PROP + "=" + PROTOCOL + "))";
+
+	private final BundleContext context;
+
+	private final Activator activator;
+
+	private final int lookups;
+
+	// keeps the lookups from being optimized away
+	private int found;
+
+	ClassResolverBenchmark(final BundleContext context, final Activator activator, final int lookups) {
+		this.context = context;
+		this.activator = activator;
+		this.lookups = lookups;
+	}
+
+	/**
+	 * @return the resolver as createOIS looked it up before
+	 */
+	IClassResolver trackerLookup() throws Exception {
+		final Filter filter = context.createFilter(CLASS_RESOLVER_FILTER);
+		final ServiceTracker<IClassResolver, IClassResolver> st = new ServiceTracker<IClassResolver, IClassResolver>(
+				context, filter, null);
+		st.open();
+		final IClassResolver resolver = st.getService();
+		st.close();
+		return resolver;
+	}
+
+	/**
+	 * @return the nanoseconds per lookup
+	 */
+	double measure(final boolean tracker) throws Exception {
+		final long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			final IClassResolver resolver = tracker ? trackerLookup() : activator.getClassResolver(PROTOCOL);
+			if (resolver != null)
+				found++;
+		}
+		return (double) (System.nanoTime() - start) / lookups;
+	}
+
+	private static double median(final double[] results) {
+		Arrays.sort(results);
+		return results[results.length / 2];
+	}
+
+	public static void main(final String[] args) throws Exception {
+		int lookups = 20000;
+		int resolvers = 3;
+		int rounds = 5;
+		for (int i = 0; i < args.length; i++) {
+			if ("-lookups".equals(args[i]) && i + 1 < args.length)
+				lookups = Integer.parseInt(args[++i]);
+			else if ("-resolvers".equals(args[i]) && i + 1 < args.length)
+				resolvers = Integer.parseInt(args[++i]);
+			else if ("-rounds".equals(args[i]) && i + 1 < args.length)
+				rounds = Integer.parseInt(args[++i]);
+			else
+				lookups = -1;
+		}
+		if (lookups < 1 || resolvers < 1 || rounds < 1) {
+			System.err.println("Usage: ClassResolverBenchmark [-lookups n] [-resolvers n] [-rounds n]");
+			System.exit(1);
+		}
+		final Iterator<FrameworkFactory> factories = ServiceLoader.load(FrameworkFactory.class).iterator();
+		if (!factories.hasNext()) {
+			System.err.println("No OSGi framework found on the class path");
+			System.exit(1);
+		}
+
+		// only the class resolvers are needed from the transport
+		System.setProperty("ch.ethz.iks.r_osgi.transport.registerHttp", "false");
+		System.setProperty("ch.ethz.iks.r_osgi.transport.registerHttps", "false");
+		final Map<String, String> config = new HashMap<String, String>();
+		config.put(Constants.FRAMEWORK_STORAGE,
+				new File(System.getProperty("java.io.tmpdir"), "ClassResolverBenchmark").getPath());
+		config.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+		final Framework framework = factories.next().newFramework(config);
+		framework.start();
+		try {
+			final BundleContext context = framework.getBundleContext();
+			for (int i = 0; i < resolvers; i++) {
+				final Dictionary<String, Object> properties = new Hashtable<String, Object>();
+				properties.put(CLASS_RESOLVER_PROP, PROTOCOL);
+				properties.put(Constants.SERVICE_RANKING, Integer.valueOf(i));
+				context.registerService(IClassResolver.class.getName(), new RankedResolver(i), properties);
+			}
+			final Activator activator = new Activator();
+			activator.start(context);
+			try {
+				final ClassResolverBenchmark benchmark = new ClassResolverBenchmark(context, activator, lookups);
+				System.out.println("tracker per lookup: " + benchmark.trackerLookup() + ", getClassResolver: "
+						+ activator.getClassResolver(PROTOCOL));
+				// the first round warms up
+				final double[] tracker = new double[rounds];
+				final double[] cached = new double[rounds];
+				for (int i = -1; i < rounds; i++) {
+					final double t = benchmark.measure(true);
+					final double c = benchmark.measure(false);
+					if (i >= 0) {
+						tracker[i] = t;
+						cached[i] = c;
+					}
+				}
+				System.out.println(String.format("%d resolvers, %d lookups: tracker per lookup %.1f ns, getClassResolver %.1f ns (%d found)",
+						Integer.valueOf(resolvers), Integer.valueOf(lookups), Double.valueOf(median(tracker)),
+						Double.valueOf(median(cached)), Integer.valueOf(benchmark.found)));
+			} finally {
+				activator.stop(context);
+			}
+		} finally {
+			framework.stop();
+			framework.waitForStop(10000);
+		}
+	}
+
+	private static final class RankedResolver implements IClassResolver {
+
+		private final int ranking;
+
+		RankedResolver(final int ranking) {
+			this.ranking = ranking;
+		}
+
+		public Class<?> resolveClass(final ObjectStreamClass desc) throws ClassNotFoundException {
+			return Class.forName(desc.getName(), false, getClass().getClassLoader());
+		}
+
+		public String toString() {
+			return "resolver with ranking " + ranking;
+		}
+	}
+}
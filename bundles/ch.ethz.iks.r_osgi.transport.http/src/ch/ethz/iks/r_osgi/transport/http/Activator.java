@@ -11,17 +11,27 @@ package ch.ethz.iks.r_osgi.transport.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.ecf.core.util.IClassResolver;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.service.log.LogService;
 import org.osgi.util.tracker.ServiceTracker;
 
 import ch.ethz.iks.r_osgi.channels.NetworkChannelFactory;
+import ch.ethz.iks.r_osgi.transport.http.codec.MessageCodec;
 
 public class Activator implements BundleActivator {
 
@@ -42,6 +52,19 @@ public class Activator implements BundleActivator {
 	private static Activator activator;
 	private static BundleContext context;
 	private ServiceTracker<LogService, LogService> logTracker;
+	private ServiceTracker<MessageCodec, MessageCodec> codecTracker;
+	// the resolvers by protocol, tracked once a message of the protocol arrives
+	private final ConcurrentMap<String, ClassResolverTracker> resolverTrackers = new ConcurrentHashMap<String, ClassResolverTracker>();
+
+	// classes resolved before may have been replaced
+	private final BundleListener refreshListener = new SynchronousBundleListener() {
+		public void bundleChanged(BundleEvent event) {
+			if ((event.getType() & (BundleEvent.UNRESOLVED | BundleEvent.UPDATED | BundleEvent.UNINSTALLED)) != 0) {
+				for (final ClassResolverTracker tracker : resolverTrackers.values())
+					tracker.invalidate();
+			}
+		}
+	};
 
 	public static Activator getDefault() {
 		return activator;
@@ -54,6 +77,9 @@ public class Activator implements BundleActivator {
 	public void start(final BundleContext ctxt) throws Exception {
 		activator = this;
 		context = ctxt;
+		codecTracker = new ServiceTracker<MessageCodec, MessageCodec>(context, MessageCodec.class, null);
+		codecTracker.open();
+		context.addBundleListener(refreshListener);
 		final Dictionary<String, Object> properties = new Hashtable<String, Object>();
 		properties.put(NetworkChannelFactory.PROTOCOL_PROPERTY,
 				HttpChannelFactory.PROTOCOL_HTTP);
@@ -88,6 +114,21 @@ public class Activator implements BundleActivator {
 		return logTracker.getService();
 	}
 
+	/**
+	 * @return the registered codecs, highest service ranking first
+	 */
+	public List<MessageCodec> getCodecs() {
+		final List<MessageCodec> codecs = new ArrayList<MessageCodec>();
+		final ServiceTracker<MessageCodec, MessageCodec> tracker = codecTracker;
+		if (tracker != null) {
+			// sorted in reverse natural order of the references, highest ranking first
+			for (final Map.Entry<ServiceReference<MessageCodec>, MessageCodec> entry : tracker.getTracked()
+					.entrySet())
+				codecs.add(entry.getValue());
+		}
+		return codecs;
+	}
+
 	private int getProperty(final BundleContext context,
 			final String propertyName, int defaultValue) {
 		final String prop = context.getProperty(propertyName);
@@ -102,25 +143,53 @@ public class Activator implements BundleActivator {
 	}
 
 	public ObjectInputStream createOIS(String protocol, InputStream ins) throws IOException {
+		IClassResolver resolver = getClassResolver(protocol);
+		if (resolver != null)
+			return new ClassResolverObjectInputStream(resolver, ins);
+		else return new ObjectInputStream(ins);
+	}
+
+	/**
+	 * @return the class resolver registered for the protocol, or null
+	 */
+	public IClassResolver getClassResolver(String protocol) {
 		if (protocol == null)
-			return new ObjectInputStream(ins);
-		try {
-			Filter filter = context.createFilter(CLASS_RESOLVER_FILTER_PREFIX+protocol+CLASS_RESOLVER_FILTER_SUFFIX);
-			ServiceTracker<IClassResolver,IClassResolver> st = new ServiceTracker<IClassResolver,IClassResolver>(context, filter, null);
-			st.open();
-			IClassResolver resolver = st.getService();
-			st.close();
-			if (resolver != null)
-				return new ClassResolverObjectInputStream(resolver, ins);
-			else return new ObjectInputStream(ins);
-		} catch (Throwable t) {
-			return new ObjectInputStream(ins);
+			return null;
+		ClassResolverTracker tracker = resolverTrackers.get(protocol);
+		if (tracker == null) {
+			synchronized (resolverTrackers) {
+				tracker = resolverTrackers.get(protocol);
+				if (tracker == null) {
+					final BundleContext ctxt = context;
+					if (ctxt == null)
+						return null;
+					try {
+						Filter filter = ctxt.createFilter(CLASS_RESOLVER_FILTER_PREFIX+protocol+CLASS_RESOLVER_FILTER_SUFFIX);
+						tracker = new ClassResolverTracker(ctxt, filter);
+						tracker.open();
+					} catch (Throwable t) {
+						return null;
+					}
+					resolverTrackers.put(protocol, tracker);
+				}
+			}
 		}
+		return tracker.getResolver();
 	}
 	/**
 	 * @see org.osgi.framework.BundleActivator#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(final BundleContext ctxt) throws Exception {
+		ctxt.removeBundleListener(refreshListener);
+		synchronized (resolverTrackers) {
+			for (final ClassResolverTracker tracker : resolverTrackers.values())
+				tracker.close();
+			resolverTrackers.clear();
+		}
+		if (codecTracker != null) {
+			codecTracker.close();
+			codecTracker = null;
+		}
 		if (logTracker != null) {
 			logTracker.close();
 			logTracker = null;
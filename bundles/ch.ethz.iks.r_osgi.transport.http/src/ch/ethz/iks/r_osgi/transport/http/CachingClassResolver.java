@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.ecf.core.util.IClassResolver;
+
+/**
+ * Remembers the classes a resolver returned, keyed by class name and
+ * serialVersionUID. The cache has to be invalidated whenever the resolver
+ * could return a different class, e.g. after bundles were refreshed.
+ */
+final class CachingClassResolver implements IClassResolver {
+
+	public static final String CACHE_SIZE_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.classCacheSize";
+
+	static final int CACHE_SIZE = Integer.valueOf(System.getProperty(CACHE_SIZE_PROPERTY, "1024")).intValue();
+
+	private final IClassResolver resolver;
+
+	private final ConcurrentMap<Key, Class<?>> cache = new ConcurrentHashMap<Key, Class<?>>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	CachingClassResolver(final IClassResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	public Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+		if (CACHE_SIZE <= 0)
+			return resolver.resolveClass(desc);
+		final Key key = new Key(desc.getName(), desc.getSerialVersionUID());
+		Class<?> clazz = cache.get(key);
+		if (clazz != null) {
+			hits.incrementAndGet();
+			return clazz;
+		}
+		misses.incrementAndGet();
+		clazz = resolver.resolveClass(desc);
+		if (clazz != null) {
+			if (cache.size() >= CACHE_SIZE) {
+				// make room, any entry will do
+				final Iterator<Key> it = cache.keySet().iterator();
+				if (it.hasNext()) {
+					it.next();
+					it.remove();
+				}
+			}
+			cache.put(key, clazz);
+		}
+		return clazz;
+	}
+
+	void invalidate() {
+		cache.clear();
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	public String toString() {
+		return "CachingClassResolver[" + resolver + ", size=" + cache.size() + ", hits=" + hits.get() + ", misses="
+				+ misses.get() + "]";
+	}
+
+	private static final class Key {
+
+		private final String name;
+
+		private final long suid;
+
+		Key(final String name, final long suid) {
+			this.name = name;
+			this.suid = suid;
+		}
+
+		public int hashCode() {
+			return name.hashCode() ^ (int) (suid ^ (suid >>> 32));
+		}
+
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key))
+				return false;
+			final Key other = (Key) o;
+			return suid == other.suid && name.equals(other.name);
+		}
+	}
+}
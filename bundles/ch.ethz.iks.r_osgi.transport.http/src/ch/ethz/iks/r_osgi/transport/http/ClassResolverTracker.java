@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.util.Map;
+
+import org.eclipse.ecf.core.util.IClassResolver;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Tracks the class resolvers of one protocol for the lifetime of the bundle,
+ * so looking up the resolver for a message is a single volatile read. Every
+ * resolver is wrapped with a cache of the classes it resolved.
+ */
+final class ClassResolverTracker extends ServiceTracker<IClassResolver, IClassResolver> {
+
+	private volatile IClassResolver resolver;
+
+	private ServiceReference<IClassResolver> reference;
+
+	ClassResolverTracker(final BundleContext context, final Filter filter) {
+		super(context, filter, null);
+	}
+
+	/**
+	 * @return the resolver with the highest ranking, or null
+	 */
+	IClassResolver getResolver() {
+		return resolver;
+	}
+
+	public IClassResolver addingService(final ServiceReference<IClassResolver> ref) {
+		final IClassResolver tracked = super.addingService(ref);
+		final IClassResolver service = tracked == null ? null : new CachingClassResolver(tracked);
+		synchronized (this) {
+			// not yet part of the tracked services
+			if (service != null && (reference == null || ref.compareTo(reference) > 0)) {
+				reference = ref;
+				resolver = service;
+			}
+		}
+		return service;
+	}
+
+	public void modifiedService(final ServiceReference<IClassResolver> ref, final IClassResolver service) {
+		((CachingClassResolver) service).invalidate();
+		update();
+	}
+
+	/**
+	 * drops the cached classes of all resolvers
+	 */
+	void invalidate() {
+		for (final IClassResolver service : getTracked().values())
+			((CachingClassResolver) service).invalidate();
+	}
+
+	public void removedService(final ServiceReference<IClassResolver> ref, final IClassResolver service) {
+		update();
+		super.removedService(ref, service);
+	}
+
+	private synchronized void update() {
+		ServiceReference<IClassResolver> best = null;
+		IClassResolver bestService = null;
+		for (final Map.Entry<ServiceReference<IClassResolver>, IClassResolver> entry : getTracked().entrySet()) {
+			if (best == null || entry.getKey().compareTo(best) > 0) {
+				best = entry.getKey();
+				bestService = entry.getValue();
+			}
+		}
+		reference = best;
+		resolver = bestService;
+	}
+}
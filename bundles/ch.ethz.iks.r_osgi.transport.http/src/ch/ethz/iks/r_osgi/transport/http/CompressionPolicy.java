@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decides per message whether the payload of a channel is gzipped. Messages
+ * below a minimum size are sent uncompressed, and so is all traffic of a
+ * channel whose messages did not compress well recently. Such a channel
+ * probes compression again every PROBE_INTERVAL messages.
+ *
+ * The receiver recognizes gzipped payloads by the GZIP magic number, so the
+ * decision does not have to be communicated.
+ */
+final class CompressionPolicy {
+
+	public static final String THRESHOLD_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.compressionThreshold";
+
+	public static final String LEVEL_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.compressionLevel";
+
+	public static final String MAX_RATIO_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.compressionMaxRatio";
+
+	/**
+	 * messages with fewer serialized bytes are never compressed
+	 */
+	static final int THRESHOLD = Integer.valueOf(System.getProperty(THRESHOLD_PROPERTY, "512")).intValue();
+
+	static final int LEVEL = Integer
+			.valueOf(System.getProperty(LEVEL_PROPERTY, String.valueOf(Deflater.DEFAULT_COMPRESSION))).intValue();
+
+	/**
+	 * compression is suspended while the average ratio of compressed to
+	 * uncompressed size is above this value
+	 */
+	static final float MAX_RATIO = Float.valueOf(System.getProperty(MAX_RATIO_PROPERTY, "0.9")).floatValue();
+
+	static final int PROBE_INTERVAL = 64;
+
+	// weight of the latest message in the average ratio
+	private static final float ALPHA = 0.25f;
+
+	private float ratio = -1;
+
+	private int suspended;
+
+	/**
+	 * @param out
+	 *            the stream which receives the (possibly compressed) message
+	 * @return a stream to write the serialized message to. It has to be closed
+	 *         once the message is complete.
+	 */
+	OutputStream open(final OutputStream out) {
+		if (LEVEL == Deflater.NO_COMPRESSION || !isCompressionEnabled())
+			return out;
+		return new ThresholdOutputStream(out);
+	}
+
+	synchronized boolean isCompressionEnabled() {
+		if (ratio <= MAX_RATIO)
+			return true;
+		if (++suspended < PROBE_INTERVAL)
+			return false;
+		suspended = 0;
+		return true;
+	}
+
+	synchronized void update(final long uncompressed, final long compressed) {
+		final float r = (float) compressed / uncompressed;
+		ratio = ratio < 0 ? r : ratio + ALPHA * (r - ratio);
+	}
+
+	synchronized float getRatio() {
+		return ratio;
+	}
+
+	/**
+	 * Holds back the first THRESHOLD bytes and starts compressing once the
+	 * message turns out to be larger.
+	 */
+	private final class ThresholdOutputStream extends OutputStream {
+
+		private final CountingOutputStream out;
+
+		private byte[] head = new byte[THRESHOLD];
+
+		private int headCount;
+
+		private GZIPOutputStream gzip;
+
+		private long uncompressed;
+
+		private final byte[] single = new byte[1];
+
+		ThresholdOutputStream(final OutputStream out) {
+			this.out = new CountingOutputStream(out);
+		}
+
+		public void write(final int b) throws IOException {
+			if (gzip == null && headCount < head.length) {
+				head[headCount++] = (byte) b;
+				return;
+			}
+			// GZIPOutputStream.write(int) would allocate an array per byte
+			single[0] = (byte) b;
+			write(single, 0, 1);
+		}
+
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			if (gzip == null) {
+				if (headCount + len <= head.length) {
+					System.arraycopy(b, off, head, headCount, len);
+					headCount += len;
+					return;
+				}
+				gzip = new GZIPOutputStream(out) {
+					{
+						def.setLevel(LEVEL);
+					}
+				};
+				gzip.write(head, 0, headCount);
+				uncompressed = headCount;
+				head = null;
+			}
+			gzip.write(b, off, len);
+			uncompressed += len;
+		}
+
+		public void close() throws IOException {
+			if (gzip == null) {
+				out.write(head, 0, headCount);
+				out.close();
+				return;
+			}
+			gzip.close();
+			update(uncompressed, out.count);
+		}
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		long count;
+
+		CountingOutputStream(final OutputStream out) {
+			this.out = out;
+		}
+
+		public void write(final int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
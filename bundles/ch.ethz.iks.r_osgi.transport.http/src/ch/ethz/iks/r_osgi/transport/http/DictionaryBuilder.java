@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.java_websocket.extensions.PerMessageDeflateExtension;
+
+/**
+ * Builds a preset dictionary for permessage-deflate from samples of
+ * serialized R-OSGi messages, e.g. payloads captured from a running system.
+ *
+ * The dictionary consists of the segments of the samples which contain the
+ * most byte sequences that are common to many samples, such as class
+ * descriptors of the message types. Deflate encodes references to the end of
+ * the dictionary with the fewest bits, so the best segments are put last.
+ *
+ * Usage: DictionaryBuilder output sample... [-size bytes]. A sample is a file
+ * holding one message or a directory of such files. The resulting file is
+ * passed to both endpoints with the dictionary property of the transport.
+ */
+public final class DictionaryBuilder {
+
+	/**
+	 * the largest useful dictionary, the window of the deflater
+	 */
+	public static final int MAX_SIZE = 32 * 1024;
+
+	// length of the byte sequences whose occurrences are counted
+	private static final int GRAM = 8;
+
+	private static final int SEGMENT = 48;
+
+	private static final int STEP = 16;
+
+	private final List<byte[]> samples = new ArrayList<byte[]>();
+
+	public void addSample(final byte[] sample) {
+		samples.add(sample);
+	}
+
+	/**
+	 * @param maxSize
+	 *            the maximum size of the dictionary
+	 * @return the dictionary
+	 */
+	public byte[] build(final int maxSize) {
+		// in how many samples does a sequence occur?
+		final Map<Gram, int[]> frequency = new HashMap<Gram, int[]>();
+		for (final byte[] sample : samples) {
+			final Set<Gram> seen = new HashSet<Gram>();
+			for (int i = 0; i + GRAM <= sample.length; i++) {
+				final Gram gram = new Gram(sample, i);
+				if (seen.add(gram)) {
+					final int[] count = frequency.get(gram);
+					if (count == null)
+						frequency.put(gram, new int[] { 1 });
+					else
+						count[0]++;
+				}
+			}
+		}
+
+		// scores only decrease as more sequences are covered, so a candidate
+		// whose updated score still beats the next best one is the best
+		final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+		final Set<Gram> covered = new HashSet<Gram>();
+		for (final byte[] sample : samples) {
+			for (int off = 0; off + GRAM <= sample.length; off += STEP) {
+				final Candidate candidate = new Candidate(sample, off, Math.min(SEGMENT, sample.length - off));
+				candidate.score = score(candidate, frequency, covered);
+				if (candidate.score > 0)
+					candidates.add(candidate);
+			}
+		}
+
+		final List<byte[]> chosen = new ArrayList<byte[]>();
+		int size = 0;
+		while (size < maxSize && !candidates.isEmpty()) {
+			final Candidate candidate = candidates.poll();
+			candidate.score = score(candidate, frequency, covered);
+			if (candidate.score == 0)
+				continue;
+			if (!candidates.isEmpty() && candidate.score < candidates.peek().score) {
+				candidates.add(candidate);
+				continue;
+			}
+			final int len = Math.min(candidate.len, maxSize - size);
+			final byte[] segment = new byte[len];
+			System.arraycopy(candidate.sample, candidate.off, segment, 0, len);
+			for (int i = 0; i + GRAM <= len; i++)
+				covered.add(new Gram(segment, i));
+			chosen.add(segment);
+			size += len;
+		}
+
+		// best segments last
+		final byte[] dictionary = new byte[size];
+		int pos = size;
+		for (final byte[] segment : chosen) {
+			pos -= segment.length;
+			System.arraycopy(segment, 0, dictionary, pos, segment.length);
+		}
+		return dictionary;
+	}
+
+	private static long score(final Candidate candidate, final Map<Gram, int[]> frequency, final Set<Gram> covered) {
+		long score = 0;
+		for (int i = candidate.off; i + GRAM <= candidate.off + candidate.len; i++) {
+			final Gram gram = new Gram(candidate.sample, i);
+			if (covered.contains(gram))
+				continue;
+			final int count = frequency.get(gram)[0];
+			// sequences which occur in a single sample do not help
+			if (count > 1)
+				score += count;
+		}
+		return score;
+	}
+
+	private void addSamples(final File file) throws IOException {
+		if (file.isDirectory()) {
+			final File[] files = file.listFiles();
+			if (files != null) {
+				for (final File f : files)
+					addSamples(f);
+			}
+		} else {
+			addSample(Files.readAllBytes(file.toPath()));
+		}
+	}
+
+	public static void main(final String[] args) throws IOException {
+		int size = MAX_SIZE;
+		final List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-size".equals(args[i]) && i + 1 < args.length)
+				size = Math.min(MAX_SIZE, Integer.parseInt(args[++i]));
+			else
+				files.add(args[i]);
+		}
+		if (files.size() < 2) {
+			System.err.println("Usage: DictionaryBuilder output sample... [-size bytes]");
+			System.exit(1);
+		}
+		final DictionaryBuilder builder = new DictionaryBuilder();
+		for (final String sample : files.subList(1, files.size()))
+			builder.addSamples(new File(sample));
+		final byte[] dictionary = builder.build(size);
+		Files.write(new File(files.get(0)).toPath(), dictionary);
+		System.out.println("Wrote " + dictionary.length + " bytes from " + builder.samples.size()
+				+ " samples, dictionary id " + PerMessageDeflateExtension.getDictionaryId(dictionary));
+	}
+
+	private static final class Candidate implements Comparable<Candidate> {
+
+		final byte[] sample;
+
+		final int off;
+
+		final int len;
+
+		long score;
+
+		Candidate(final byte[] sample, final int off, final int len) {
+			this.sample = sample;
+			this.off = off;
+			this.len = len;
+		}
+
+		public int compareTo(final Candidate other) {
+			// highest score first
+			return score > other.score ? -1 : score < other.score ? 1 : 0;
+		}
+	}
+
+	private static final class Gram {
+
+		private final byte[] data;
+
+		private final int off;
+
+		private final int hash;
+
+		Gram(final byte[] data, final int off) {
+			this.data = data;
+			this.off = off;
+			int h = 1;
+			for (int i = off; i < off + GRAM; i++)
+				h = 31 * h + data[i];
+			hash = h;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(final Object o) {
+			if (!(o instanceof Gram))
+				return false;
+			final Gram other = (Gram) o;
+			for (int i = 0; i < GRAM; i++) {
+				if (data[off + i] != other.data[other.off + i])
+					return false;
+			}
+			return true;
+		}
+	}
+}
@@ -8,34 +8,55 @@
  ******************************************************************************/
 package ch.ethz.iks.r_osgi.transport.http;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.PerMessageDeflateExtension;
 import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.framing.FramedataImpl1;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import org.java_websocket.server.DefaultSSLWebSocketServerFactory;
+import org.java_websocket.server.LeastQueueDepthAssignment;
 import org.java_websocket.server.WebSocketServer;
 import org.java_websocket.util.Base64;
+import org.java_websocket.util.ByteBufferInputStream;
+import org.java_websocket.util.ByteBufferPool;
+import org.java_websocket.util.FrameOutputStream;
 import org.osgi.service.log.LogService;
 
 import ch.ethz.iks.r_osgi.Remoting;
@@ -44,6 +65,8 @@ import ch.ethz.iks.r_osgi.channels.ChannelEndpoint;
 import ch.ethz.iks.r_osgi.channels.NetworkChannel;
 import ch.ethz.iks.r_osgi.channels.NetworkChannelFactory;
 import ch.ethz.iks.r_osgi.messages.RemoteOSGiMessage;
+import ch.ethz.iks.r_osgi.transport.http.codec.MessageCodec;
+import ch.ethz.iks.r_osgi.transport.http.codec.StatefulMessageCodec;
 
 public class HttpChannelFactory implements NetworkChannelFactory {
 
@@ -67,6 +90,145 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 	public static final boolean USE_BYTE_BUFFER = new Boolean(
 			System.getProperty("ch.ethz.iks.r_osgi.transport.http.useByteBuffer", "false")).booleanValue();
 
+	public static final String PER_MESSAGE_DEFLATE_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.perMessageDeflate";
+
+	/**
+	 * Offer/accept the permessage-deflate extension. Messages of connections
+	 * which negotiated it are not gzipped by the transport.
+	 */
+	public static final boolean PER_MESSAGE_DEFLATE = new Boolean(
+			System.getProperty(PER_MESSAGE_DEFLATE_PROPERTY, "false")).booleanValue();
+
+	public static final String WIRE_FORMATS_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.wireFormats";
+
+	/**
+	 * The wire formats offered in the handshake, in order of preference. Peers
+	 * which do not negotiate a wire format fall back to USE_BYTE_BUFFER.
+	 */
+	static final List<WireFormat> WIRE_FORMATS = WireFormat.parse(System.getProperty(WIRE_FORMATS_PROPERTY,
+			WireFormat.BINARY.getProtocolName() + "," + WireFormat.BASE64.getProtocolName()));
+
+	public static final String OBJECT_STREAM_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.objectStream";
+
+	/**
+	 * whether the codec which sends class descriptors once per connection is
+	 * preferred. It is accepted from clients in any case.
+	 */
+	public static final boolean OBJECT_STREAM = new Boolean(System.getProperty(OBJECT_STREAM_PROPERTY, "false"))
+			.booleanValue();
+
+	public static final String PARALLEL_DECODE_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.parallelDecode";
+
+	public static final String PARALLEL_DECODE_THRESHOLD_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.parallelDecodeThreshold";
+
+	/**
+	 * number of threads which decode large received messages of a channel
+	 * concurrently, 0 to decode all messages one after another. only used
+	 * with dispatch threads, which deliver the decoded messages in order
+	 */
+	static final int PARALLEL_DECODE = Integer.valueOf(System.getProperty(PARALLEL_DECODE_PROPERTY, "0")).intValue();
+
+	/**
+	 * messages with fewer bytes are not worth handing to another thread
+	 */
+	static final int PARALLEL_DECODE_THRESHOLD = Integer
+			.valueOf(System.getProperty(PARALLEL_DECODE_THRESHOLD_PROPERTY, "65536")).intValue();
+
+	// decoded messages per decoding thread which may wait for delivery,
+	// messages beyond are decoded in order
+	private static final int MAX_PARALLEL_DECODE = 4;
+
+	public static final String SELECTOR_THREADS_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.selectorThreads";
+
+	/**
+	 * number of threads per listening socket which read from and write to
+	 * the accepted connections, 0 to serve them on the thread which accepts
+	 * them
+	 */
+	static final int SELECTOR_THREADS = Integer.valueOf(System.getProperty(SELECTOR_THREADS_PROPERTY, "0"))
+			.intValue();
+
+	public static final String ACCEPTORS_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.acceptors";
+
+	/**
+	 * number of sockets which listen on the port, each with its own threads.
+	 * More than one requires SO_REUSEPORT, otherwise a single socket is used.
+	 */
+	static final int ACCEPTORS = Integer.valueOf(System.getProperty(ACCEPTORS_PROPERTY, "1")).intValue();
+
+	public static final String DECODERS_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.decoders";
+
+	/**
+	 * number of threads which decode the received data, shared out among
+	 * the listening sockets. 0 to decode on the threads which read the data.
+	 */
+	static final int DECODERS = Integer.valueOf(
+			System.getProperty(DECODERS_PROPERTY, String.valueOf(Runtime.getRuntime().availableProcessors())))
+			.intValue();
+
+	public static final String INLINE_DECODE_THRESHOLD_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.inlineDecodeThreshold";
+
+	/**
+	 * reads of up to this many bytes are decoded by the thread which read
+	 * them if the connection has no other data waiting, 0 to hand all reads
+	 * to the decoding threads
+	 */
+	static final int INLINE_DECODE_THRESHOLD = Integer
+			.valueOf(System.getProperty(INLINE_DECODE_THRESHOLD_PROPERTY, "0")).intValue();
+
+	public static final String READ_BUDGET_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.readBudget";
+
+	/**
+	 * maximum number of bytes read from a connection at once. Connections
+	 * which fill a whole read buffer are drained with a single scattering
+	 * read up to the budget, 0 to read one buffer at a time
+	 */
+	static final int READ_BUDGET = Integer.valueOf(System.getProperty(READ_BUDGET_PROPERTY, "0")).intValue();
+
+	public static final String WORKER_ASSIGNMENT_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.workerAssignment";
+
+	/**
+	 * how received data is spread across the decoding threads of a
+	 * listening socket: "round-robin" pins every connection to a thread,
+	 * "least-depth" picks the least busy thread and moves connections away
+	 * from threads which fall behind, "work-stealing" decodes on a pool whose
+	 * idle threads take over busy connections
+	 */
+	static final String WORKER_ASSIGNMENT = System.getProperty(WORKER_ASSIGNMENT_PROPERTY, "round-robin");
+
+	public static final String DIRECT_BUFFERS_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.directBuffers";
+
+	/**
+	 * whether the listening sockets read into pooled direct buffers, which
+	 * spares the copy the JDK makes for every read into a heap buffer
+	 */
+	static final boolean DIRECT_BUFFERS = new Boolean(System.getProperty(DIRECT_BUFFERS_PROPERTY, "false"))
+			.booleanValue();
+
+	public static final String BUFFER_LEAK_TRACKING_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.bufferLeakTracking";
+
+	/**
+	 * whether read buffers which are not handed back to their pool are
+	 * reported, for debugging
+	 */
+	static final boolean BUFFER_LEAK_TRACKING = new Boolean(
+			System.getProperty(BUFFER_LEAK_TRACKING_PROPERTY, "false")).booleanValue();
+
+	public static final String DICTIONARY_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.dictionary";
+
+	/**
+	 * preset dictionaries for permessage-deflate, read from the comma
+	 * separated files of the dictionary property. A dictionary is only used
+	 * if the peer has the same one, see DictionaryBuilder.
+	 */
+	static final List<byte[]> DICTIONARIES = loadDictionaries(System.getProperty(DICTIONARY_PROPERTY, ""));
+
+	/**
+	 * handshake header with the codecs offered by the client, and the one
+	 * chosen by the server in the response
+	 */
+	static final String CODEC_HEADER = "X-R-OSGi-Codec";
+
 	static final String PROTOCOL_HTTP = "http"; //$NON-NLS-1$
 	static final String PROTOCOL_HTTPS = "https"; //$NON-NLS-1$
 
@@ -76,7 +238,22 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 	private final int port;
 	private final boolean secure;
 
-	private WebSocketListener server;
+	private final List<WebSocketListener> servers = new ArrayList<WebSocketListener>();
+
+	// processes received messages, null to process them on the reading thread
+	private volatile MessageDispatcher dispatcher;
+
+	// decodes large received messages in parallel, null to decode them in
+	// order
+	private volatile ForkJoinPool decodePool;
+
+	// decodes the received data of all listening sockets, null if every
+	// socket decodes on its own threads
+	private volatile ForkJoinPool workerPool;
+
+	private final MessageCodec defaultCodec;
+
+	private final MessageCodec streamCodec;
 
 	final static class Ping extends FramedataImpl1 {
 		public Ping() {
@@ -91,6 +268,143 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 
 	final static Ping ping = new Ping();
 
+	/**
+	 * The encodings of a message on the wire, negotiated as
+	 * Sec-WebSocket-Protocol.
+	 */
+	enum WireFormat {
+		/**
+		 * serialized message in a binary frame
+		 */
+		BINARY("rosgi-binary"),
+		/**
+		 * gzipped and Base64 encoded serialized message in a text frame
+		 */
+		BASE64("rosgi-base64");
+
+		private final String protocolName;
+
+		private WireFormat(final String protocolName) {
+			this.protocolName = protocolName;
+		}
+
+		String getProtocolName() {
+			return protocolName;
+		}
+
+		static WireFormat forProtocolName(final String protocolName) {
+			for (final WireFormat format : values()) {
+				if (format.protocolName.equals(protocolName))
+					return format;
+			}
+			return null;
+		}
+
+		static List<WireFormat> parse(final String protocolNames) {
+			final List<WireFormat> formats = new ArrayList<WireFormat>();
+			for (final String name : protocolNames.split(",")) {
+				final WireFormat format = forProtocolName(name.trim());
+				if (format != null && !formats.contains(format))
+					formats.add(format);
+			}
+			return Collections.unmodifiableList(formats);
+		}
+
+		/**
+		 * @return the format negotiated for the connection, or the configured
+		 *         default for peers which did not negotiate one
+		 */
+		static WireFormat forConnection(final WebSocket socket) {
+			final Draft draft = socket.getDraft();
+			if (draft instanceof Draft_6455) {
+				final IProtocol protocol = ((Draft_6455) draft).getProtocol();
+				if (protocol != null) {
+					final WireFormat format = forProtocolName(protocol.getProvidedProtocol());
+					if (format != null)
+						return format;
+				}
+			}
+			return USE_BYTE_BUFFER ? BINARY : BASE64;
+		}
+	}
+
+	static boolean isDeflating(final WebSocket socket) {
+		final Draft draft = socket.getDraft();
+		return draft instanceof Draft_6455
+				&& ((Draft_6455) draft).getExtension() instanceof PerMessageDeflateExtension;
+	}
+
+	/**
+	 * accepts whatever Sec-WebSocket-Protocol the client offered, or none,
+	 * without selecting a protocol for the response. Used by the server for
+	 * clients which do not offer any of the wire formats.
+	 */
+	final static class AnyProtocol implements IProtocol {
+
+		public boolean acceptProvidedProtocol(final String inputProtocolHeader) {
+			return true;
+		}
+
+		public String getProvidedProtocol() {
+			return "";
+		}
+
+		public IProtocol copyInstance() {
+			return new AnyProtocol();
+		}
+
+		@Override
+		public String toString() {
+			return "any";
+		}
+	}
+
+	/**
+	 * @param negotiate
+	 *            whether the configured wire formats should be offered
+	 * @param server
+	 *            whether the draft is used by the server, which also accepts
+	 *            clients offering only unknown protocols
+	 * @return a new draft
+	 */
+	static Draft_6455 createDraft(final boolean negotiate, final boolean server) {
+		final List<IProtocol> protocols = new ArrayList<IProtocol>();
+		if (negotiate) {
+			for (final WireFormat format : WIRE_FORMATS)
+				protocols.add(new Protocol(format.getProtocolName()));
+		}
+		// peers without wire format negotiation
+		protocols.add(server ? new AnyProtocol() : new Protocol(""));
+		final List<IExtension> extensions = new ArrayList<IExtension>();
+		if (PER_MESSAGE_DEFLATE) {
+			// offered first, peers without the dictionary fall back to the
+			// plain extension
+			for (final byte[] dictionary : DICTIONARIES)
+				extensions.add(new PerMessageDeflateExtension(CompressionPolicy.LEVEL, CompressionPolicy.THRESHOLD,
+						false, false, dictionary));
+			extensions.add(new PerMessageDeflateExtension(CompressionPolicy.LEVEL, CompressionPolicy.THRESHOLD, false,
+					false));
+		}
+		return new Draft_6455(extensions, protocols);
+	}
+
+	static List<byte[]> loadDictionaries(final String paths) {
+		final List<byte[]> dictionaries = new ArrayList<byte[]>();
+		for (final String path : paths.split(",")) {
+			if (path.trim().length() == 0)
+				continue;
+			try {
+				dictionaries.add(Files.readAllBytes(Paths.get(path.trim())));
+			} catch (final IOException e) {
+				final Activator activator = Activator.getDefault();
+				final LogService log = activator == null ? null : activator.getLogService();
+				if (log != null)
+					log.log(LogService.LOG_WARNING, "Cannot read dictionary " + path.trim(), e);
+			}
+		}
+		return Collections.unmodifiableList(dictionaries);
+	}
+
 	HttpChannelFactory(final int port, final boolean secure) {
 		this(true, port, secure);
 	}
@@ -99,6 +413,62 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 		this.listen = listen;
 		this.port = port;
 		this.secure = secure;
+		this.defaultCodec = new JavaSerializationCodec(secure ? PROTOCOL_HTTPS : PROTOCOL_HTTP);
+		this.streamCodec = new JavaStreamCodec(secure ? PROTOCOL_HTTPS : PROTOCOL_HTTP);
+	}
+
+	/**
+	 * @return the codecs in the order of preference, the registered codecs
+	 *         followed by the built-in ones
+	 */
+	List<MessageCodec> getCodecs() {
+		final Activator activator = Activator.getDefault();
+		final List<MessageCodec> codecs = activator == null ? new ArrayList<MessageCodec>() : activator.getCodecs();
+		if (OBJECT_STREAM)
+			addCodec(codecs, streamCodec);
+		addCodec(codecs, defaultCodec);
+		addCodec(codecs, streamCodec);
+		return codecs;
+	}
+
+	private static void addCodec(final List<MessageCodec> codecs, final MessageCodec codec) {
+		if (selectCodec(codec.getName(), codecs) == null)
+			codecs.add(codec);
+	}
+
+	/**
+	 * @return the codec to use for a single connection
+	 */
+	static MessageCodec openCodec(final MessageCodec codec) {
+		return codec instanceof StatefulMessageCodec ? ((StatefulMessageCodec) codec).createSession() : codec;
+	}
+
+	/**
+	 * @param names
+	 *            the comma separated names of the codecs in the order of
+	 *            preference, or an empty string if the peer did not negotiate
+	 * @param codecs
+	 *            the available codecs
+	 * @return the first codec of names which is available, or null
+	 */
+	static MessageCodec selectCodec(final String names, final List<MessageCodec> codecs) {
+		for (final String name : (names.length() == 0 ? MessageCodec.DEFAULT_CODEC : names).split(",")) {
+			for (final MessageCodec codec : codecs) {
+				if (codec.getName().equals(name.trim()))
+					return codec;
+			}
+		}
+		return null;
+	}
+
+	static String getCodecNames(final List<MessageCodec> codecs) {
+		final StringBuilder names = new StringBuilder();
+		for (final MessageCodec codec : codecs) {
+			if (names.length() > 0)
+				names.append(',');
+			names.append(codec.getName());
+		}
+		return names.toString();
 	}
 
 	private LogService getLogService() {
@@ -174,22 +544,87 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 
 	public void activate(final Remoting remoting) throws IOException {
 		this.remoting = remoting;
+		if (MessageDispatcher.THREADS > 0)
+			this.dispatcher = new MessageDispatcher(MessageDispatcher.THREADS,
+					"HttpChannelFactory dispatcher port=" + port);
+		if (PARALLEL_DECODE > 0) {
+			if (dispatcher != null)
+				this.decodePool = new ForkJoinPool(PARALLEL_DECODE);
+			else
+				logWarning("Parallel decoding requires dispatch threads, messages are decoded one after another", null);
+		}
 		if (listen) {
-			this.server = new WebSocketListener(port);
-			this.server.start();
+			int acceptors = Math.max(1, ACCEPTORS);
+			if (acceptors > 1 && !WebSocketServer.isReusePortSupported()) {
+				logWarning("SO_REUSEPORT is not supported, listening on port " + port + " with a single socket", null);
+				acceptors = 1;
+			}
+			if ("work-stealing".equals(WORKER_ASSIGNMENT))
+				this.workerPool = new ForkJoinPool(Math.max(1, DECODERS),
+						ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+			else if (!"least-depth".equals(WORKER_ASSIGNMENT) && !"round-robin".equals(WORKER_ASSIGNMENT))
+				logWarning("Unknown worker assignment " + WORKER_ASSIGNMENT + ", using round-robin", null);
+			// the decoding threads are shared out among the sockets
+			final int decoders = DECODERS <= 0 ? 0 : Math.max(1, DECODERS / acceptors);
+			final ByteBufferPool bufferPool = new ByteBufferPool(DIRECT_BUFFERS, 1 << 16, 1 << 22,
+					BUFFER_LEAK_TRACKING);
+			for (int i = 0; i < acceptors; i++) {
+				final WebSocketListener server = new WebSocketListener(port, decoders);
+				server.setReusePort(acceptors > 1);
+				server.setBufferPool(bufferPool);
+				server.setInlineDecodeThreshold(INLINE_DECODE_THRESHOLD);
+				server.setReadBudget(Math.max(0, READ_BUDGET));
+				if (workerPool != null)
+					server.setDecoderExecutor(workerPool);
+				else if ("least-depth".equals(WORKER_ASSIGNMENT))
+					server.setWorkerAssignmentStrategy(new LeastQueueDepthAssignment());
+				servers.add(server);
+				server.start();
+			}
 		}
 	}
 
 	public void deactivate(final Remoting remoting) throws IOException {
 		this.remoting = null;
 		if (listen) {
-			try {
-				this.server.stop();
-			} catch (InterruptedException e) {
-				logError("Error in HttpChannelFactory.deactivate", e);
+			for (final WebSocketListener server : servers) {
+				try {
+					server.stop();
+				} catch (InterruptedException e) {
+					logError("Error in HttpChannelFactory.deactivate", e);
+				}
 			}
-			this.server = null;
+			servers.clear();
 		}
+		if (workerPool != null) {
+			workerPool.shutdown();
+			workerPool = null;
+		}
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+			dispatcher = null;
+		}
+		if (decodePool != null) {
+			decodePool.shutdown();
+			decodePool = null;
+		}
+	}
+
+	/**
+	 * @return the number of received messages which wait to be processed
+	 */
+	public int getDispatchQueueDepth() {
+		final MessageDispatcher d = dispatcher;
+		return d == null ? 0 : d.getQueueDepth();
+	}
+
+	/**
+	 * @return the highest number of received messages which waited to be
+	 *         processed at once
+	 */
+	public int getMaxDispatchQueueDepth() {
+		final MessageDispatcher d = dispatcher;
+		return d == null ? 0 : d.getMaxQueueDepth();
 	}
 
 	public int getListeningPort(final String protocol) {
@@ -202,18 +637,56 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 		final URI remoteAddress;
 		final URI localAddress;
 		ChannelEndpoint endpoint;
+		final MessageCodec codec;
+		final WireFormat wireFormat;
+		// the connection compresses with permessage-deflate
+		final boolean deflate;
+
+		// the codec keeps state which depends on the order of the messages
+		final boolean statefulCodec;
+
+		// payload buffers for outgoing messages, the frame header is written
+		// in front of the encoded message so it is not copied again
+		private final Queue<FrameOutputStream> frameBuffers = new ConcurrentLinkedQueue<FrameOutputStream>();
+
+		// held while a message is handed to the socket, messages are queued
+		// for writing in the order in which they acquire it
+		private final Object sendLock = new Object();
+
+		// the received messages of the channel, null if they are processed
+		// by the reading thread
+		private final MessageDispatcher.ChannelQueue dispatchQueue = dispatcher == null ? null
+				: dispatcher.createQueue();
+
+		private final CompressionPolicy compression = new CompressionPolicy();
 
 		public HttpChannel(final WebSocket socket) {
 			this.socket = socket;
 			final String protocol = secure ? PROTOCOL_HTTPS : PROTOCOL_HTTP;
 			this.remoteAddress = uriFromSocketAddress(protocol, socket.getRemoteSocketAddress());
 			this.localAddress = uriFromSocketAddress(protocol, socket.getLocalSocketAddress());
+			this.wireFormat = WireFormat.forConnection(socket);
+			this.deflate = isDeflating(socket);
+			// chosen during the handshake
+			final MessageCodec codec = socket.getAttachment();
+			this.statefulCodec = codec instanceof StatefulMessageCodec;
+			this.codec = openCodec(codec == null ? defaultCodec : codec);
 		}
 
 		class ROSGiWebSocketClient extends WebSocketClient {
 
 			private Exception error;
 
+			private final boolean negotiate;
+
+			private boolean opened;
+
+			private int closeCode;
+
+			private final List<MessageCodec> codecs;
+
+			MessageCodec codec;
+
 			// XXX note that eventually (after updating to new version
 			// of java_websocket.WebSocketClient, that this super constructor
 			// can be used to allow client configuration of connect timeout
@@ -222,31 +695,52 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 			// CONNECT_TIMEOUT);
 			//
 
-			public ROSGiWebSocketClient(String serverUri) {
-				super(java.net.URI.create(serverUri));
+			public ROSGiWebSocketClient(String serverUri, boolean negotiate, List<MessageCodec> codecs) {
+				super(java.net.URI.create(serverUri), createDraft(negotiate, false),
+						Collections.singletonMap(CODEC_HEADER, getCodecNames(codecs)), 0);
+				this.negotiate = negotiate;
+				this.codecs = codecs;
+			}
+
+			@Override
+			public void onWebsocketHandshakeReceivedAsClient(WebSocket conn, ClientHandshake request,
+					ServerHandshake response) throws InvalidDataException {
+				codec = selectCodec(response.getFieldValue(CODEC_HEADER), codecs);
+				if (codec == null)
+					throw new InvalidDataException(CloseFrame.POLICY_VALIDATION,
+							"Unknown codec " + response.getFieldValue(CODEC_HEADER));
 			}
 
 			@Override
 			public void onClose(int arg0, String arg1, boolean arg2) {
+				this.closeCode = arg0;
 				closeSocket();
-				HttpChannel.this.endpoint.dispose();
+				// a rejected offer is retried without negotiation
+				if (!isRejected())
+					HttpChannel.this.endpoint.dispose();
 			}
 
 			@Override
 			public void onError(Exception error) {
 				logWarning("WebSocketClient(" + HttpChannel.this.remoteAddress + ").onError", error);
 				this.error = error;
-				HttpChannel.this.endpoint.dispose();
+				if (opened || !negotiate)
+					HttpChannel.this.endpoint.dispose();
 			}
 
 			@Override
 			public void onMessage(String message) {
-				processMessage(message);
+				dispatchTextMessage(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+			}
+
+			@Override
+			public void onWebsocketTextMessage(WebSocket conn, ByteBuffer message) {
+				dispatchTextMessage(message);
 			}
 
 			@Override
 			public void onMessage(ByteBuffer bytes) {
-				processMessage(bytes);
+				dispatchMessage(bytes);
 			}
 
 			@Override
@@ -256,7 +750,15 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 
 			@Override
 			public void onOpen(ServerHandshake server) {
+				opened = true;
+			}
 
+			/**
+			 * @return true if a peer which does not know about wire formats
+			 *         refused the handshake
+			 */
+			boolean isRejected() {
+				return negotiate && !opened && closeCode == CloseFrame.PROTOCOL_ERROR;
 			}
 
 			public void doConnect() throws Exception {
@@ -269,7 +771,28 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 		public HttpChannel(final ChannelEndpoint endpoint, final URI endpointURI) throws IOException {
 			this.endpoint = endpoint;
 			this.remoteAddress = endpointURI;
-			final ROSGiWebSocketClient client = new ROSGiWebSocketClient(endpointURI.toString());
+			ROSGiWebSocketClient client = connect(endpointURI, !WIRE_FORMATS.isEmpty());
+			if (client.isRejected()) {
+				logWarning("Wire format negotiation refused by target=" + this.remoteAddress
+						+ ", reconnecting without", null);
+				client = connect(endpointURI, false);
+			}
+			// connect succeeded
+			final WebSocket connection = client.getConnection();
+			this.localAddress = URI.create(client.getURI().toString());
+			this.statefulCodec = client.codec instanceof StatefulMessageCodec;
+			this.codec = openCodec(client.codec);
+			this.wireFormat = WireFormat.forConnection(connection);
+			this.deflate = isDeflating(connection);
+			// messages are dropped until the channel is connected
+			this.socket = connection;
+			if (PING_TIMEOUT_PROPERTY > 0) 
+				new PingThread("HttpChannel Ping for="+localAddress).start();
+		}
+
+		private ROSGiWebSocketClient connect(final URI endpointURI, final boolean negotiate) throws IOException {
+			final ROSGiWebSocketClient client = new ROSGiWebSocketClient(endpointURI.toString(), negotiate,
+					getCodecs());
 
 			try {
 				if (secure) {
@@ -292,11 +815,7 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 				logError(errMsg, e);
 				throw new IOException(errMsg, e);
 			}
-			// connect succeeded
-			this.socket = client.getConnection();
-			this.localAddress = URI.create(client.getURI().toString());
-			if (PING_TIMEOUT_PROPERTY > 0) 
-				new PingThread("HttpChannel Ping for="+localAddress).start();
+			return client;
 		}
 
 		public String getProtocol() {
@@ -380,79 +899,211 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 			}
 		}
 
-		public synchronized void sendMessage(final RemoteOSGiMessage message) throws IOException {
+		/**
+		 * Messages are encoded by the calling thread without holding a lock,
+		 * so concurrent callers encode in parallel. Only handing the frame to
+		 * the socket is serialized, which includes permessage-deflate since
+		 * its compression context depends on the order of the messages.
+		 */
+		public void sendMessage(final RemoteOSGiMessage message) throws IOException {
 			if (isConnected()) {
-				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-				final ObjectOutputStream out = new ObjectOutputStream(bytes);
-				startTiming("serialization funcId=" + message.getFuncID() + ";xid=" + message.getXID());
-				message.send(out);
-				out.close();
-				stopTiming("serialization  funcId=" + message.getFuncID() + ";xid=" + message.getXID());
-				if (!USE_BYTE_BUFFER) {
-					startTiming("base64encoding byteslength=" + bytes.size());
-					byte[] b = bytes.toByteArray();
-					String base64String = Base64.encodeBytes(b, 0, b.length, Base64.GZIP);
-					stopTiming("base64encoding stringLength=" + base64String.length());
-					startTiming("socket send");
-					socket.send(base64String);
-					stopTiming("socket send");
-				} else {
-					startTiming("socket send");
-					socket.send(ByteBuffer.wrap(bytes.toByteArray()));
-					stopTiming("socket send");
+				FrameOutputStream frameOut = frameBuffers.poll();
+				if (frameOut == null)
+					frameOut = new FrameOutputStream();
+				try {
+					if (statefulCodec) {
+						synchronized (sendLock) {
+							send(encode(message, frameOut), frameOut);
+						}
+					} else {
+						final Framedata.Opcode opcode = encode(message, frameOut);
+						synchronized (sendLock) {
+							send(opcode, frameOut);
+						}
+					}
+				} finally {
+					// drop a partially written message
+					frameOut.reset();
+					frameBuffers.offer(frameOut);
 				}
 			}
 		}
 
+		private Framedata.Opcode encode(final RemoteOSGiMessage message, final FrameOutputStream frameOut)
+				throws IOException {
+			final OutputStream out;
+			final Framedata.Opcode opcode;
+			if (wireFormat == WireFormat.BASE64) {
+				// same encoding as Base64.encodeBytes(b, Base64.GZIP) for
+				// compressed messages but streamed into the frame payload
+				final OutputStream base64 = new Base64.OutputStream(frameOut, Base64.ENCODE);
+				out = deflate ? base64 : compression.open(base64);
+				opcode = Framedata.Opcode.TEXT;
+			} else {
+				out = frameOut;
+				opcode = Framedata.Opcode.BINARY;
+			}
+			startTiming("serialization funcId=" + message.getFuncID() + ";xid=" + message.getXID());
+			codec.encode(message, out);
+			out.close();
+			stopTiming("serialization  funcId=" + message.getFuncID() + ";xid=" + message.getXID());
+			return opcode;
+		}
+
+		private void send(final Framedata.Opcode opcode, final FrameOutputStream frameOut) {
+			startTiming("socket send byteslength=" + frameOut.size());
+			socket.send(opcode, frameOut);
+			stopTiming("socket send");
+		}
+
 		private URI uriFromSocketAddress(final String protocol, final InetSocketAddress addr) {
 			return URI.create(protocol + "://" + addr.getHostName() + ":" + addr.getPort());
 		}
 
-		public synchronized void processMessage(final String message) {
-			Activator a = Activator.getDefault();
-			if (isConnected() && a != null) {
-				try {
-					startTiming("base64decode message length=" + message.length());
-					byte[] base64decoded = Base64.decode(message);
-					stopTiming("base64decode bytesDecoded=" + base64decoded.length);
-					final ObjectInputStream in = a.createOIS(this.localAddress.getScheme(), new ByteArrayInputStream(base64decoded));
-					startTiming("RemoteOSGiMessage.parse");
-					final RemoteOSGiMessage msg = RemoteOSGiMessage.parse(in);
-					in.close();
-					stopTiming("RemoteOSGiMessage.parse funcId=" + msg.getFuncID() + ";xid=" + msg.getXID());
-					endpoint.receivedMessage(msg);
-				} catch (Exception e) {
-					logError("HttpChannel.processMessage", e);
+		void dispatchTextMessage(final ByteBuffer message) {
+			dispatch(message, true);
+		}
+
+		void dispatchMessage(final ByteBuffer bytes) {
+			dispatch(bytes, false);
+		}
+
+		private void dispatch(final ByteBuffer payload, final boolean text) {
+			final ForkJoinPool pool = decodePool;
+			if (pool != null && dispatchQueue != null && !statefulCodec && isConnected()) {
+				// large messages are decoded in parallel, the others on the
+				// dispatch queue, in any case they are delivered on the
+				// dispatch queue in the order in which they arrived
+				final long sequence = decoded.arrive();
+				final Runnable task = new Runnable() {
+					public void run() {
+						RemoteOSGiMessage msg = null;
+						try {
+							msg = decode(payload, text);
+						} finally {
+							// the messages behind it must not wait for ever
+							decoded.complete(sequence, msg);
+						}
+					}
+				};
+				if (payload.remaining() >= PARALLEL_DECODE_THRESHOLD
+						&& decoded.pending() <= MAX_PARALLEL_DECODE * pool.getParallelism()) {
+					try {
+						pool.execute(task);
+					} catch (final RejectedExecutionException e) {
+						// the pool is shut down, decode it here
+						task.run();
+					}
+				} else {
+					dispatchQueue.execute(task);
+				}
+				return;
+			}
+			if (dispatchQueue == null) {
+				process(payload, text);
+				return;
+			}
+			dispatchQueue.execute(new Runnable() {
+				public void run() {
+					process(payload, text);
 				}
+			});
+		}
+
+		// received messages which were decoded in parallel, handed to the
+		// dispatch queue in order so the decoding threads never call into
+		// the endpoint
+		private final ReorderBuffer<RemoteOSGiMessage> decoded = new ReorderBuffer<RemoteOSGiMessage>() {
+			protected void deliver(final RemoteOSGiMessage msg) {
+				dispatchQueue.execute(new Runnable() {
+					public void run() {
+						deliverIfConnected(msg);
+					}
+				});
 			}
+		};
+
+		public void processTextMessage(final ByteBuffer message) {
+			process(message, true);
+		}
+
+		public void processMessage(final ByteBuffer bytes) {
+			process(bytes, false);
 		}
 
-		public synchronized void processMessage(final ByteBuffer bytes) {
+		private synchronized void process(final ByteBuffer payload, final boolean text) {
 			if (isConnected()) {
-				try {
-					if (bytes.hasArray()) {
-						final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.array()));
-						startTiming("RemoteOSGiMessage.parse");
-						final RemoteOSGiMessage msg = RemoteOSGiMessage.parse(in);
-						in.close();
-						stopTiming("RemoteOSGiMessage.parse funcId=" + msg.getFuncID() + ";xid=" + msg.getXID());
-						endpoint.receivedMessage(msg);
-					} else
-						throw new IllegalArgumentException("processMessage bytes argument does not contain an array");
-				} catch (Exception e) {
-					logError("HttpChannel.processMessage message", e);
+				final RemoteOSGiMessage msg = decode(payload, text);
+				if (msg != null)
+					deliver(msg);
+			}
+		}
+
+		private synchronized void deliverIfConnected(final RemoteOSGiMessage msg) {
+			if (isConnected())
+				deliver(msg);
+		}
+
+		/**
+		 * @return the message, or null if it cannot be decoded
+		 */
+		private RemoteOSGiMessage decode(final ByteBuffer payload, final boolean text) {
+			try {
+				startTiming("RemoteOSGiMessage.parse message length=" + payload.remaining());
+				final RemoteOSGiMessage msg = codec
+						.decode(text ? decodeTextMessage(payload) : new ByteBufferInputStream(payload));
+				stopTiming("RemoteOSGiMessage.parse funcId=" + msg.getFuncID() + ";xid=" + msg.getXID());
+				return msg;
+			} catch (Exception e) {
+				logError("HttpChannel.processMessage", e);
+				if (statefulCodec) {
+					// the state of the session, e.g. the class descriptor
+					// table, may now miss entries later messages refer to
+					synchronized (this) {
+						if (isConnected())
+							socket.close(CloseFrame.UNEXPECTED_CONDITION, "Cannot decode message");
+					}
 				}
+				return null;
+			}
+		}
+
+		private void deliver(final RemoteOSGiMessage msg) {
+			try {
+				endpoint.receivedMessage(msg);
+			} catch (Exception e) {
+				logError("HttpChannel.processMessage", e);
 			}
 		}
 
 	}
 
+	/**
+	 * Decodes the payload of a text message while it is read. Like
+	 * Base64.decode(String) the decoded bytes are gunzipped if they start with
+	 * the GZIP magic number, so neither the decoded nor the inflated message
+	 * is ever held in memory as a whole.
+	 */
+	static InputStream decodeTextMessage(final ByteBuffer message) throws IOException {
+		final PushbackInputStream in = new PushbackInputStream(
+				new Base64.InputStream(new ByteBufferInputStream(message), Base64.DECODE), 2);
+		final byte[] head = new byte[2];
+		final int len = in.read(head, 0, 2);
+		if (len > 0)
+			in.unread(head, 0, len);
+		if (len == 2 && ((head[0] & 0xff) | ((head[1] << 8) & 0xff00)) == GZIPInputStream.GZIP_MAGIC)
+			return new GZIPInputStream(in);
+		return in;
+	}
+
 	private class WebSocketListener extends WebSocketServer {
 
-		private Map<WebSocket, HttpChannel> channels = new HashMap<WebSocket, HttpChannel>();;
+		// accessed by the selector and worker threads
+		private Map<WebSocket, HttpChannel> channels = new ConcurrentHashMap<WebSocket, HttpChannel>();
 
-		protected WebSocketListener(final int port) throws IOException {
-			super(new InetSocketAddress(port));
+		protected WebSocketListener(final int port, final int decoders) throws IOException {
+			super(new InetSocketAddress(port), decoders, Collections.<Draft> singletonList(createDraft(true, true)));
+			setSelectorCount(SELECTOR_THREADS);
 
 			if (secure) {
 				try {
@@ -476,13 +1127,35 @@ public class HttpChannelFactory implements NetworkChannelFactory {
 		public void onMessage(WebSocket socket, String message) {
 			final HttpChannel channel = channels.get(socket);
 			if (channel != null)
-				channel.processMessage(message);
+				channel.dispatchTextMessage(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+		}
+
+		@Override
+		public void onWebsocketTextMessage(WebSocket socket, ByteBuffer message) {
+			final HttpChannel channel = channels.get(socket);
+			if (channel != null)
+				channel.dispatchTextMessage(message);
 		}
 
 		public void onMessage(WebSocket socket, ByteBuffer bytes) {
 			final HttpChannel channel = channels.get(socket);
 			if (channel != null)
-				channel.processMessage(bytes);
+				channel.dispatchMessage(bytes);
+		}
+
+		@Override
+		public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft,
+				ClientHandshake request) throws InvalidDataException {
+			final ServerHandshakeBuilder response = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+			final String offer = request.getFieldValue(CODEC_HEADER);
+			final MessageCodec codec = selectCodec(offer, getCodecs());
+			if (codec == null)
+				throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, "No supported codec in " + offer);
+			// peers which do not negotiate use the default codec
+			if (offer.length() > 0)
+				response.put(CODEC_HEADER, codec.getName());
+			conn.setAttachment(codec);
+			return response;
 		}
 
 		@Override
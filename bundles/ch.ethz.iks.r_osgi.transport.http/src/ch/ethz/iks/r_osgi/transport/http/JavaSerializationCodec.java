@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import ch.ethz.iks.r_osgi.messages.RemoteOSGiMessage;
+import ch.ethz.iks.r_osgi.transport.http.codec.MessageCodec;
+
+/**
+ * The default codec, every message is written with a new ObjectOutputStream.
+ * Classes are resolved by the IClassResolver registered for the protocol, if
+ * there is one.
+ */
+final class JavaSerializationCodec implements MessageCodec {
+
+	private final String protocol;
+
+	JavaSerializationCodec(final String protocol) {
+		this.protocol = protocol;
+	}
+
+	public String getName() {
+		return DEFAULT_CODEC;
+	}
+
+	public void encode(final RemoteOSGiMessage message, final OutputStream out) throws IOException {
+		final ObjectOutputStream oos = new ObjectOutputStream(out);
+		message.send(oos);
+		oos.flush();
+	}
+
+	public RemoteOSGiMessage decode(final InputStream in) throws IOException {
+		final Activator a = Activator.getDefault();
+		final ObjectInputStream ois = a == null ? new ObjectInputStream(in) : a.createOIS(protocol, in);
+		try {
+			return RemoteOSGiMessage.parse(ois);
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("Cannot decode message", e);
+		} finally {
+			ois.close();
+		}
+	}
+}
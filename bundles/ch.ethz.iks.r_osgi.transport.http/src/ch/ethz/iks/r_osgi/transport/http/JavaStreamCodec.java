@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.ecf.core.util.IClassResolver;
+
+import ch.ethz.iks.r_osgi.messages.RemoteOSGiMessage;
+import ch.ethz.iks.r_osgi.transport.http.codec.MessageCodec;
+import ch.ethz.iks.r_osgi.transport.http.codec.StatefulMessageCodec;
+
+/**
+ * Java serialization which sends every class descriptor only once per
+ * connection. Later messages refer to the descriptor by its index in a table
+ * which both ends of the connection build up in the same order.
+ *
+ * Unlike a single ObjectOutputStream for the whole connection only class
+ * descriptors are shared between messages, so an object which is sent again
+ * after it was modified is not replaced by a back reference to its old state.
+ * The tables are dropped every RESET_INTERVAL messages to bound their size.
+ *
+ * Every message starts with a flag which tells the receiver to drop its
+ * table, followed by a regular serialization stream. A message which cannot
+ * be decoded may leave the receiver's table incomplete, the channel closes
+ * the connection then.
+ */
+final class JavaStreamCodec implements StatefulMessageCodec {
+
+	public static final String NAME = "java-stream";
+
+	public static final String RESET_INTERVAL_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.objectStreamResetInterval";
+
+	/**
+	 * number of messages after which the class descriptors are sent again,
+	 * 0 to keep them for the lifetime of the connection
+	 */
+	static final int RESET_INTERVAL = Integer.valueOf(System.getProperty(RESET_INTERVAL_PROPERTY, "1024"))
+			.intValue();
+
+	private static final int RESET = 1;
+
+	// marks the first occurrence of a class descriptor
+	private static final int NEW_DESCRIPTOR = 1;
+
+	private final String protocol;
+
+	JavaStreamCodec(final String protocol) {
+		this.protocol = protocol;
+	}
+
+	public String getName() {
+		return NAME;
+	}
+
+	public MessageCodec createSession() {
+		return new Session();
+	}
+
+	/**
+	 * encodes a message on its own, with fresh tables
+	 */
+	public void encode(final RemoteOSGiMessage message, final OutputStream out) throws IOException {
+		new Session().encode(message, out);
+	}
+
+	public RemoteOSGiMessage decode(final InputStream in) throws IOException {
+		return new Session().decode(in);
+	}
+
+	private final class Session implements MessageCodec {
+
+		private final Map<ObjectStreamClass, Integer> sent = new HashMap<ObjectStreamClass, Integer>();
+
+		private final List<ObjectStreamClass> received = new ArrayList<ObjectStreamClass>();
+
+		private int messages;
+
+		// the peer may not have all descriptors of the table
+		private boolean invalid = true;
+
+		public String getName() {
+			return NAME;
+		}
+
+		public synchronized void encode(final RemoteOSGiMessage message, final OutputStream out) throws IOException {
+			if (invalid || (RESET_INTERVAL > 0 && messages >= RESET_INTERVAL)) {
+				sent.clear();
+				messages = 0;
+				out.write(RESET);
+			} else {
+				out.write(0);
+			}
+			// until the message is complete
+			invalid = true;
+			final ObjectOutputStream oos = new ClassTableObjectOutputStream(out, sent);
+			message.send(oos);
+			oos.flush();
+			messages++;
+			invalid = false;
+		}
+
+		public synchronized RemoteOSGiMessage decode(final InputStream in) throws IOException {
+			final int flags = in.read();
+			if (flags < 0)
+				throw new StreamCorruptedException("Empty message");
+			if ((flags & RESET) != 0)
+				received.clear();
+			final Activator a = Activator.getDefault();
+			final ObjectInputStream ois = new ClassTableObjectInputStream(in, received,
+					a == null ? null : a.getClassResolver(protocol));
+			try {
+				return RemoteOSGiMessage.parse(ois);
+			} catch (final ClassNotFoundException e) {
+				throw new IOException("Cannot decode message", e);
+			} finally {
+				ois.close();
+			}
+		}
+	}
+
+	private static final class ClassTableObjectOutputStream extends ObjectOutputStream {
+
+		private final Map<ObjectStreamClass, Integer> table;
+
+		ClassTableObjectOutputStream(final OutputStream out, final Map<ObjectStreamClass, Integer> table)
+				throws IOException {
+			super(out);
+			this.table = table;
+		}
+
+		protected void writeClassDescriptor(final ObjectStreamClass desc) throws IOException {
+			final Integer index = table.get(desc);
+			if (index != null) {
+				writeByte(0);
+				writeInt(index.intValue());
+				return;
+			}
+			writeByte(NEW_DESCRIPTOR);
+			writeInt(table.size());
+			table.put(desc, Integer.valueOf(table.size()));
+			super.writeClassDescriptor(desc);
+		}
+	}
+
+	private static final class ClassTableObjectInputStream extends ObjectInputStream {
+
+		private final List<ObjectStreamClass> table;
+
+		private final IClassResolver resolver;
+
+		ClassTableObjectInputStream(final InputStream in, final List<ObjectStreamClass> table,
+				final IClassResolver resolver) throws IOException {
+			super(in);
+			this.table = table;
+			this.resolver = resolver;
+		}
+
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			final boolean isNew = readByte() == NEW_DESCRIPTOR;
+			final int index = readInt();
+			if (isNew) {
+				if (index != table.size())
+					throw new StreamCorruptedException("Unexpected class descriptor " + index);
+				final ObjectStreamClass desc = super.readClassDescriptor();
+				table.add(desc);
+				return desc;
+			}
+			if (index < 0 || index >= table.size())
+				throw new StreamCorruptedException("Unknown class descriptor " + index);
+			return table.get(index);
+		}
+
+		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			return resolver == null ? super.resolveClass(desc) : resolver.resolveClass(desc);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the processing of received messages on a pool of threads, so the
+ * threads reading from the sockets never deserialize messages or call into
+ * the endpoint.
+ *
+ * Every channel has its own queue. The messages of a channel are processed
+ * one after another in the order in which they arrived, while the messages
+ * of different channels are processed in parallel.
+ */
+final class MessageDispatcher {
+
+	public static final String THREADS_PROPERTY = "ch.ethz.iks.r_osgi.transport.http.dispatchThreads";
+
+	/**
+	 * number of dispatch threads, 0 to process messages on the thread which
+	 * read them
+	 */
+	static final int THREADS = Integer.valueOf(System.getProperty(THREADS_PROPERTY, "0")).intValue();
+
+	// messages a channel processes before it yields the thread to others
+	private static final int BATCH = 16;
+
+	private final ExecutorService executor;
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private volatile int maxQueued;
+
+	MessageDispatcher(final int threads, final String name) {
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return a new queue for the messages of a channel
+	 */
+	ChannelQueue createQueue() {
+		return new ChannelQueue();
+	}
+
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the number of messages waiting to be processed
+	 */
+	int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the highest number of messages which were waiting at once
+	 */
+	int getMaxQueueDepth() {
+		return maxQueued;
+	}
+
+	private void enqueued() {
+		final int depth = queued.incrementAndGet();
+		if (depth > maxQueued)
+			maxQueued = depth;
+	}
+
+	final class ChannelQueue implements Executor, Runnable {
+
+		private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+
+		private boolean scheduled;
+
+		public void execute(final Runnable task) {
+			enqueued();
+			synchronized (this) {
+				tasks.add(task);
+				if (scheduled)
+					return;
+				scheduled = true;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			try {
+				executor.execute(this);
+			} catch (final RejectedExecutionException e) {
+				// shut down, the messages are dropped like those of a closed
+				// channel
+				synchronized (this) {
+					queued.addAndGet(-tasks.size());
+					tasks.clear();
+					scheduled = false;
+				}
+			}
+		}
+
+		public void run() {
+			for (int i = 0; i < BATCH; i++) {
+				final Runnable task;
+				synchronized (this) {
+					task = tasks.poll();
+					if (task == null) {
+						scheduled = false;
+						return;
+					}
+				}
+				queued.decrementAndGet();
+				boolean completed = false;
+				try {
+					task.run();
+					completed = true;
+				} finally {
+					// the remaining messages are processed nevertheless
+					if (!completed)
+						schedule();
+				}
+			}
+			// let the other channels catch up
+			schedule();
+		}
+
+		/**
+		 * @return the number of messages of the channel which wait to be
+		 *         processed
+		 */
+		synchronized int getQueueDepth() {
+			return tasks.size();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Restores the order of items which are completed concurrently. Every item
+ * gets a sequence number when it arrives and is delivered once all items
+ * with lower numbers were delivered.
+ *
+ * Items are delivered one at a time by the thread which completes the next
+ * item in sequence.
+ */
+abstract class ReorderBuffer<T> {
+
+	// completed items which wait for their predecessors, null for skipped
+	// items
+	private final Map<Long, T> completed = new HashMap<Long, T>();
+
+	private long arrived;
+
+	private long next;
+
+	private boolean delivering;
+
+	/**
+	 * @return the sequence number of the next item
+	 */
+	synchronized long arrive() {
+		return arrived++;
+	}
+
+	/**
+	 * @return the number of items which arrived but were not yet delivered
+	 */
+	synchronized int pending() {
+		return (int) (arrived - next);
+	}
+
+	/**
+	 * @param sequence
+	 *            the sequence number of the item
+	 * @param item
+	 *            the item, or null if there is nothing to deliver
+	 */
+	void complete(final long sequence, final T item) {
+		synchronized (this) {
+			completed.put(Long.valueOf(sequence), item);
+			// the thread which is delivering picks the item up
+			if (delivering)
+				return;
+			delivering = true;
+		}
+		boolean done = false;
+		try {
+			while (true) {
+				final T next;
+				synchronized (this) {
+					final Long key = Long.valueOf(this.next);
+					if (!completed.containsKey(key)) {
+						delivering = false;
+						done = true;
+						return;
+					}
+					next = completed.remove(key);
+					this.next++;
+				}
+				if (next != null)
+					deliver(next);
+			}
+		} finally {
+			if (!done) {
+				synchronized (this) {
+					delivering = false;
+				}
+			}
+		}
+	}
+
+	protected abstract void deliver(T item);
+}
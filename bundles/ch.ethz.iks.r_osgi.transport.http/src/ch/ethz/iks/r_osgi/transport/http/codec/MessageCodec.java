@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import ch.ethz.iks.r_osgi.messages.RemoteOSGiMessage;
+
+/**
+ * Encodes R-OSGi messages into the payload of a WebSocket message and back.
+ *
+ * Codecs are registered as services. When a connection is established, the
+ * client offers the names of its codecs in the order of their service ranking
+ * and the server picks the first one it knows as well. Both ends of the
+ * connection then use this codec for all messages. The built-in codec "java"
+ * is always available and uses Java serialization.
+ *
+ * A codec is shared by all connections and has to be thread safe.
+ */
+public interface MessageCodec {
+
+	/**
+	 * name of the codec which is used if the peer does not negotiate one
+	 */
+	String DEFAULT_CODEC = "java";
+
+	/**
+	 * @return the name under which the codec is negotiated. It must not
+	 *         contain commas or whitespace.
+	 */
+	String getName();
+
+	/**
+	 * @param message
+	 *            the message
+	 * @param out
+	 *            the payload of the WebSocket message. The stream must not be
+	 *            closed by the codec.
+	 * @throws IOException
+	 *             if the message cannot be encoded
+	 */
+	void encode(RemoteOSGiMessage message, OutputStream out) throws IOException;
+
+	/**
+	 * @param in
+	 *            the payload of one WebSocket message
+	 * @return the message
+	 * @throws IOException
+	 *             if the payload is not a valid message
+	 */
+	RemoteOSGiMessage decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM, Inc. All rights reserved. This
+ * program and the accompanying materials are made available under the terms of
+ * the Eclipse Public License v1.0 which accompanies this distribution, and is
+ * available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: Jan S. Rellermeyer, IBM Research - initial API and implementation
+ ******************************************************************************/
+package ch.ethz.iks.r_osgi.transport.http.codec;
+
+/**
+ * A codec which keeps state for the lifetime of a connection, e.g. to send
+ * recurring data only once per connection.
+ *
+ * Every connection which negotiated the codec gets its own session. The
+ * messages of a session are encoded in the order in which they are sent and
+ * decoded in the order in which they are received, one at a time.
+ */
+public interface StatefulMessageCodec extends MessageCodec {
+
+	/**
+	 * @return a new codec for a single connection, with the same name
+	 */
+	MessageCodec createSession();
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.java_websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+/**
+ * Measures the send throughput depending on the number of connections and the number of threads which send on each connection.
+ * <p>
+ * A server on the loopback interface counts the received messages while every sender sends the same number of binary messages on its connection.
+ * Each combination runs a few rounds after a warm up round, the median round is reported.
+ * With threads of different connections the senders should not contend with each other, with several threads on one connection they only contend on the queue of the connection.
+ * <p>
+ * The benchmark is not part of the bundle, run it with the compiled bundle on the class path.
+ * <p>
+ * Usage: SendBenchmark [-messages messagesPerSender] [-size bytes] [-rounds rounds] [-connections n,...] [-senders n,...]
+ */
+public final class SendBenchmark {
+
+	private final int messages;
+
+	private final int size;
+
+	private final int rounds;
+
+	private volatile CountDownLatch received;
+
+	private final WebSocketServer server;
+
+	public SendBenchmark( int messages, int size, int rounds ) throws InterruptedException {
+		this.messages = messages;
+		this.size = size;
+		this.rounds = rounds;
+		final CountDownLatch started = new CountDownLatch( 1 );
+		server = new WebSocketServer( new InetSocketAddress( "localhost", 0 ) ) {
+			@Override
+			public void onOpen( WebSocket conn, ClientHandshake handshake ) {
+			}
+
+			@Override
+			public void onClose( WebSocket conn, int code, String reason, boolean remote ) {
+			}
+
+			@Override
+			public void onMessage( WebSocket conn, String message ) {
+			}
+
+			@Override
+			public void onMessage( WebSocket conn, ByteBuffer message ) {
+				received.countDown();
+			}
+
+			@Override
+			public void onError( WebSocket conn, Exception ex ) {
+				ex.printStackTrace();
+			}
+
+			@Override
+			public void onStart() {
+				started.countDown();
+			}
+		};
+		server.start();
+		started.await();
+	}
+
+	/**
+	 * @return the median throughput in messages per second
+	 */
+	public double measure( int connections, int senders ) throws Exception {
+		WebSocketClient[] clients = new WebSocketClient[ connections ];
+		URI uri = new URI( "ws://localhost:" + server.getPort() );
+		for( int i = 0; i < connections; i++ ) {
+			clients[ i ] = new WebSocketClient( uri ) {
+				@Override
+				public void onOpen( ServerHandshake handshake ) {
+				}
+
+				@Override
+				public void onMessage( String message ) {
+				}
+
+				@Override
+				public void onClose( int code, String reason, boolean remote ) {
+				}
+
+				@Override
+				public void onError( Exception ex ) {
+					ex.printStackTrace();
+				}
+			};
+			if( !clients[ i ].connectBlocking() )
+				throw new IllegalStateException( "could not connect to " + uri );
+		}
+		try {
+			// the first round warms up
+			double[] results = new double[ rounds ];
+			for( int i = -1; i < rounds; i++ ) {
+				double result = round( clients, senders );
+				if( i >= 0 )
+					results[ i ] = result;
+			}
+			Arrays.sort( results );
+			return results[ rounds / 2 ];
+		} finally {
+			for( WebSocketClient client : clients )
+				client.closeBlocking();
+		}
+	}
+
+	private double round( WebSocketClient[] clients, int senders ) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch( 1 );
+		long total = ( long ) messages * senders * clients.length;
+		received = new CountDownLatch( ( int ) total );
+		final byte[] payload = new byte[ size ];
+		Thread[] threads = new Thread[ clients.length * senders ];
+		for( int i = 0; i < threads.length; i++ ) {
+			final WebSocketClient client = clients[ i / senders ];
+			threads[ i ] = new Thread( "SendBenchmark-sender-" + i ) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for( int j = 0; j < messages; j++ )
+							client.send( payload );
+					} catch ( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			threads[ i ].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		if( !received.await( 5, TimeUnit.MINUTES ) )
+			throw new IllegalStateException( "only " + ( total - received.getCount() ) + " of " + total + " messages arrived" );
+		long elapsed = System.nanoTime() - begin;
+		for( Thread t : threads )
+			t.join();
+		return total * 1e9 / elapsed;
+	}
+
+	public void stop() throws IOException, InterruptedException {
+		server.stop();
+	}
+
+	private static int[] parseList( String list ) {
+		String[] counts = list.split( "," );
+		int[] result = new int[ counts.length ];
+		for( int j = 0; j < counts.length; j++ )
+			result[ j ] = Integer.parseInt( counts[ j ] );
+		return result;
+	}
+
+	public static void main( String[] args ) throws Exception {
+		int messages = 20000;
+		int size = 128;
+		int rounds = 5;
+		int[] connections = { 1, 2, 4, 8 };
+		int[] senders = { 1, 4 };
+		try {
+			for( int i = 0; i < args.length; i++ ) {
+				if( "-messages".equals( args[ i ] ) && i + 1 < args.length )
+					messages = Integer.parseInt( args[ ++i ] );
+				else if( "-size".equals( args[ i ] ) && i + 1 < args.length )
+					size = Integer.parseInt( args[ ++i ] );
+				else if( "-rounds".equals( args[ i ] ) && i + 1 < args.length )
+					rounds = Integer.parseInt( args[ ++i ] );
+				else if( "-connections".equals( args[ i ] ) && i + 1 < args.length )
+					connections = parseList( args[ ++i ] );
+				else if( "-senders".equals( args[ i ] ) && i + 1 < args.length )
+					senders = parseList( args[ ++i ] );
+				else
+					throw new IllegalArgumentException( args[ i ] );
+			}
+			if( messages < 1 || size < 0 || rounds < 1 )
+				throw new IllegalArgumentException();
+		} catch ( IllegalArgumentException e ) {
+			System.err.println( "Usage: SendBenchmark [-messages messagesPerSender] [-size bytes] [-rounds rounds] [-connections n,...] [-senders n,...]" );
+			System.exit( 1 );
+		}
+		SendBenchmark benchmark = new SendBenchmark( messages, size, rounds );
+		try {
+			StringBuilder header = new StringBuilder( "connections" );
+			for( int s : senders )
+				header.append( '\t' ).append( s ).append( s == 1 ? " sender" : " senders" );
+			System.out.println( header + "\t(thousand messages per second, " + Runtime.getRuntime().availableProcessors() + " processors)" );
+			for( int c : connections ) {
+				StringBuilder line = new StringBuilder().append( c ).append( '\t' );
+				for( int s : senders )
+					line.append( String.format( "\t%.1f", benchmark.measure( c, s ) / 1e3 ) );
+				System.out.println( line );
+			}
+		} finally {
+			benchmark.stop();
+		}
+	}
+}
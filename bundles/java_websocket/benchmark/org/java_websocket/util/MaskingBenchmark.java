@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.java_websocket.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares masking a payload one byte at a time, as the drafts used to do it, with {@link Masking}, which XORs 8 bytes at a time.
+ * <p>
+ * Both ways copy the masked payload from one buffer to another, like a frame is unmasked when it is read. Each payload size is measured with heap and with direct buffers.
+ * Each combination runs a few rounds after a warm up round, the median round is reported.
+ * <p>
+ * The benchmark is not part of the bundle, run it with the compiled bundle on the class path.
+ * <p>
+ * Usage: MaskingBenchmark [-bytes bytesPerRound] [-rounds rounds] [-sizes n,...]
+ */
+public final class MaskingBenchmark {
+
+	private final long bytes;
+
+	private final int rounds;
+
+	// keeps the masking from being optimized away
+	private int sink;
+
+	public MaskingBenchmark( long bytes, int rounds ) {
+		this.bytes = bytes;
+		this.rounds = rounds;
+	}
+
+	/**
+	 * @return the median throughput in bytes per second
+	 */
+	public double measure( boolean words, boolean direct, int size ) {
+		ByteBuffer src = direct ? ByteBuffer.allocateDirect( size ) : ByteBuffer.allocate( size );
+		ByteBuffer dst = direct ? ByteBuffer.allocateDirect( size ) : ByteBuffer.allocate( size );
+		byte[] payload = new byte[ size ];
+		new Random( size ).nextBytes( payload );
+		src.put( payload );
+		byte[] maskkey = { 0x12, 0x34, 0x56, 0x78 };
+		int key = Masking.getKey( maskkey, 0 );
+		long iterations = Math.max( 1, bytes / size );
+		// the first round warms up
+		double[] results = new double[ rounds ];
+		for( int i = -1; i < rounds; i++ ) {
+			long begin = System.nanoTime();
+			for( long j = 0; j < iterations; j++ ) {
+				src.clear();
+				dst.clear();
+				if( words )
+					Masking.mask( src, dst, size, key );
+				else
+					maskBytes( src, dst, size, maskkey );
+				sink += dst.get( size - 1 );
+			}
+			long elapsed = System.nanoTime() - begin;
+			if( i >= 0 )
+				results[ i ] = iterations * size * 1e9 / elapsed;
+		}
+		Arrays.sort( results );
+		return results[ rounds / 2 ];
+	}
+
+	private static void maskBytes( ByteBuffer src, ByteBuffer dst, int length, byte[] maskkey ) {
+		for( int i = 0; i < length; i++ ) {
+			dst.put( ( byte ) ( src.get() ^ maskkey[ i % 4 ] ) );
+		}
+	}
+
+	public static void main( String[] args ) {
+		long bytes = 256L << 20;
+		int rounds = 5;
+		int[] sizes = { 16, 125, 1024, 16384, 65536, 1 << 20 };
+		try {
+			for( int i = 0; i < args.length; i++ ) {
+				if( "-bytes".equals( args[ i ] ) && i + 1 < args.length )
+					bytes = Long.parseLong( args[ ++i ] );
+				else if( "-rounds".equals( args[ i ] ) && i + 1 < args.length )
+					rounds = Integer.parseInt( args[ ++i ] );
+				else if( "-sizes".equals( args[ i ] ) && i + 1 < args.length ) {
+					String[] counts = args[ ++i ].split( "," );
+					sizes = new int[ counts.length ];
+					for( int j = 0; j < counts.length; j++ )
+						sizes[ j ] = Integer.parseInt( counts[ j ] );
+				} else
+					throw new IllegalArgumentException( args[ i ] );
+			}
+			if( bytes < 1 || rounds < 1 )
+				throw new IllegalArgumentException();
+			for( int size : sizes )
+				if( size < 1 )
+					throw new IllegalArgumentException();
+		} catch ( IllegalArgumentException e ) {
+			System.err.println( "Usage: MaskingBenchmark [-bytes bytesPerRound] [-rounds rounds] [-sizes n,...]" );
+			System.exit( 1 );
+		}
+		MaskingBenchmark benchmark = new MaskingBenchmark( bytes, rounds );
+		System.out.println( "size\t\theap bytes\theap words\tdirect bytes\tdirect words\t(MB per second)" );
+		for( int size : sizes ) {
+			double heapBytes = benchmark.measure( false, false, size );
+			double heapWords = benchmark.measure( true, false, size );
+			double directBytes = benchmark.measure( false, true, size );
+			double directWords = benchmark.measure( true, true, size );
+			System.out.println( String.format( "%d\t\t%.0f\t\t%.0f\t\t%.0f\t\t%.0f", size, heapBytes / 1e6, heapWords / 1e6, directBytes / 1e6, directWords / 1e6 ) );
+		}
+		System.out.println( "(checksum " + benchmark.sink + ")" );
+	}
+}
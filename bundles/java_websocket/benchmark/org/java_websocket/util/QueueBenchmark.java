@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Compares the throughput of {@link MpscArrayQueue} and {@link LinkedBlockingQueue} when several producers send to a single consumer,
+ * which is how the outQueue of a connection and the queue of a worker are used.
+ * <p>
+ * Every producer puts the same number of buffers into a queue of the given capacity while one thread takes them out.
+ * Each combination of queue and producer count runs a few rounds after a warm up round, the median round is reported.
+ * <p>
+ * The benchmark is not part of the bundle, run it with the compiled bundle on the class path.
+ * <p>
+ * Usage: QueueBenchmark [-items itemsPerProducer] [-capacity capacity] [-rounds rounds] [-producers n,...]
+ */
+public final class QueueBenchmark {
+
+	private static final ByteBuffer ITEM = ByteBuffer.allocate( 0 );
+
+	private final int items;
+
+	private final int capacity;
+
+	private final int rounds;
+
+	public QueueBenchmark( int items, int capacity, int rounds ) {
+		this.items = items;
+		this.capacity = capacity;
+		this.rounds = rounds;
+	}
+
+	/**
+	 * @return the median throughput in elements per second
+	 */
+	public double measure( boolean mpsc, int producers ) throws InterruptedException {
+		// the first round warms up
+		double[] results = new double[ rounds ];
+		for( int i = -1; i < rounds; i++ ) {
+			BlockingQueue<ByteBuffer> queue = mpsc ? new MpscArrayQueue<ByteBuffer>( capacity, WaitStrategy.PARK ) : new LinkedBlockingQueue<ByteBuffer>( capacity );
+			double result = round( queue, producers );
+			if( i >= 0 )
+				results[ i ] = result;
+		}
+		Arrays.sort( results );
+		return results[ rounds / 2 ];
+	}
+
+	private double round( final BlockingQueue<ByteBuffer> queue, int producers ) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch( 1 );
+		Thread[] threads = new Thread[ producers ];
+		for( int i = 0; i < producers; i++ ) {
+			threads[ i ] = new Thread( "QueueBenchmark-producer-" + i ) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for( int j = 0; j < items; j++ )
+							queue.put( ITEM );
+					} catch ( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			threads[ i ].start();
+		}
+		long total = (long) items * producers;
+		long begin = System.nanoTime();
+		start.countDown();
+		for( long i = 0; i < total; i++ )
+			queue.take();
+		long elapsed = System.nanoTime() - begin;
+		for( Thread t : threads )
+			t.join();
+		return total * 1e9 / elapsed;
+	}
+
+	public static void main( String[] args ) throws InterruptedException {
+		int items = 1000000;
+		int capacity = 1024;
+		int rounds = 5;
+		int[] producers = { 1, 2, 4, 8 };
+		try {
+			for( int i = 0; i < args.length; i++ ) {
+				if( "-items".equals( args[ i ] ) && i + 1 < args.length )
+					items = Integer.parseInt( args[ ++i ] );
+				else if( "-capacity".equals( args[ i ] ) && i + 1 < args.length )
+					capacity = Integer.parseInt( args[ ++i ] );
+				else if( "-rounds".equals( args[ i ] ) && i + 1 < args.length )
+					rounds = Integer.parseInt( args[ ++i ] );
+				else if( "-producers".equals( args[ i ] ) && i + 1 < args.length ) {
+					String[] counts = args[ ++i ].split( "," );
+					producers = new int[ counts.length ];
+					for( int j = 0; j < counts.length; j++ )
+						producers[ j ] = Integer.parseInt( counts[ j ] );
+				} else
+					throw new IllegalArgumentException( args[ i ] );
+			}
+			if( items < 1 || capacity < 1 || rounds < 1 )
+				throw new IllegalArgumentException();
+		} catch ( IllegalArgumentException e ) {
+			System.err.println( "Usage: QueueBenchmark [-items itemsPerProducer] [-capacity capacity] [-rounds rounds] [-producers n,...]" );
+			System.exit( 1 );
+		}
+		QueueBenchmark benchmark = new QueueBenchmark( items, capacity, rounds );
+		System.out.println( "producers\tMpscArrayQueue\tLinkedBlockingQueue\t(million elements per second, " + Runtime.getRuntime().availableProcessors() + " processors)" );
+		for( int n : producers ) {
+			double mpsc = benchmark.measure( true, n );
+			double linked = benchmark.measure( false, n );
+			System.out.println( String.format( "%d\t\t%.2f\t\t%.2f", n, mpsc / 1e6, linked / 1e6 ) );
+		}
+	}
+}
@@ -67,6 +67,18 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
      */
     private int connectionLostTimeout = 60;
 
+	/**
+	 * Attribute for the maximum number of data frames queued for sending per connection
+	 * @since 1.4.1
+	 */
+	private int outQueueCapacity = WebSocketImpl.OUTQUEUE_CAPACITY;
+
+	/**
+	 * Attribute for how long a sending thread waits for room in the queue of a connection
+	 * @since 1.4.1
+	 */
+	private int outQueueTimeout = WebSocketImpl.OUTQUEUE_TIMEOUT_MILLIS;
+
     /**
      * Get the interval checking for lost connections
      * Default is 60 seconds
@@ -230,4 +242,54 @@ public abstract class AbstractWebSocket extends WebSocketAdapter {
 		this.reuseAddr = reuseAddr;
 	}
 
+	/**
+	 * Returns the maximum number of data frames queued for sending on a new connection
+	 *
+	 * @return the capacity of the send queue
+	 * @since 1.4.1
+	 */
+	public int getOutQueueCapacity() {
+		return outQueueCapacity;
+	}
+
+	/**
+	 * Setter for the maximum number of data frames queued for sending on new connections
+	 * <p>
+	 * A thread which sends while the queue of its connection is full waits until the frames were written to the socket, see {@link #setOutQueueTimeout(int)}.
+	 * Default is {@link WebSocketImpl#OUTQUEUE_CAPACITY}.
+	 *
+	 * @param outQueueCapacity the capacity of the send queue, at least 1
+	 * @since 1.4.1
+	 */
+	public void setOutQueueCapacity( int outQueueCapacity ) {
+		if( outQueueCapacity < 1 )
+			throw new IllegalArgumentException( "outQueueCapacity must be at least 1" );
+		this.outQueueCapacity = outQueueCapacity;
+	}
+
+	/**
+	 * Returns how long a sending thread waits for room in the queue of a new connection
+	 *
+	 * @return the timeout in milliseconds, 0 if it waits as long as the connection is open
+	 * @since 1.4.1
+	 */
+	public int getOutQueueTimeout() {
+		return outQueueTimeout;
+	}
+
+	/**
+	 * Setter for how long a sending thread waits for room in the queue of new connections
+	 * <p>
+	 * If the peer does not read enough data within the timeout the connection is closed with {@link CloseFrame#ABNORMAL_CLOSE} and the send fails.
+	 * A value of 0 disables the timeout, which is the default unless {@link WebSocketImpl#OUTQUEUE_TIMEOUT_MILLIS} was changed.
+	 *
+	 * @param outQueueTimeout the timeout in milliseconds
+	 * @since 1.4.1
+	 */
+	public void setOutQueueTimeout( int outQueueTimeout ) {
+		if( outQueueTimeout < 0 )
+			throw new IllegalArgumentException( "outQueueTimeout must not be negative" );
+		this.outQueueTimeout = outQueueTimeout;
+	}
+
 }
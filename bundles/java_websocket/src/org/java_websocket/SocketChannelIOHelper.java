@@ -28,6 +28,8 @@ package org.java_websocket;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 
 import org.java_websocket.WebSocket.Role;
 
@@ -45,6 +47,31 @@ public class SocketChannelIOHelper {
 		return read != 0;
 	}
 
+	/**
+	 * Reads into several buffers with a single scattering read
+	 *
+	 * @param bufs    the buffers to read into, they are flipped afterwards
+	 * @param ws      The WebSocketImpl associated with the channels
+	 * @param channel The channel to read from
+	 * @return the number of bytes read, -1 if the end of the stream was reached
+	 * @throws IOException May be thrown by {@link ScatteringByteChannel#read(ByteBuffer[])}
+	 * @since 1.4.1
+	 */
+	public static long read( final ByteBuffer[] bufs, WebSocketImpl ws, ScatteringByteChannel channel ) throws IOException {
+		for( ByteBuffer buf : bufs ) {
+			buf.clear();
+		}
+		long read = channel.read( bufs );
+		for( ByteBuffer buf : bufs ) {
+			buf.flip();
+		}
+
+		if( read == -1 ) {
+			ws.eot();
+		}
+		return read;
+	}
+
 	/**
 	 * @see WrappedByteChannel#readMore(ByteBuffer)
 	 * @param buf The ByteBuffer to read from
@@ -82,6 +109,10 @@ public class SocketChannelIOHelper {
 					c.writeMore();
 				}
 			}
+		} else if( sockchannel instanceof GatheringByteChannel ) {
+			if( !gather( ws, (GatheringByteChannel) sockchannel ) ) {
+				return false;
+			}
 		} else {
 			do {// FIXME writing as much as possible is unfair!!
 				/*int written = */sockchannel.write( buffer );
@@ -101,4 +132,32 @@ public class SocketChannelIOHelper {
 		}
 		return c == null || !((WrappedByteChannel) sockchannel).isNeedWrite();
 	}
+
+	/**
+	 * Writes the outQueue with gathering writes of up to {@link WebSocketImpl#WRITE_BATCH} buffers each and removes the written buffers
+	 *
+	 * @return whether the whole outQueue has been written
+	 */
+	private static boolean gather( WebSocketImpl ws, GatheringByteChannel channel ) throws IOException {
+		ByteBuffer[] bufs = new ByteBuffer[Math.max( 1, Math.min( WebSocketImpl.WRITE_BATCH, ws.outQueue.size() ) )];
+		while( true ) {
+			int count = 0;
+			// the iterator starts at the head, only this thread removes buffers
+			for( ByteBuffer buffer : ws.outQueue ) {
+				bufs[count++] = buffer;
+				if( count == bufs.length )
+					break;
+			}
+			if( count == 0 )
+				return true;
+			channel.write( bufs, 0, count );
+			for( int i = 0; i < count; i++ ) {
+				if( bufs[i].hasRemaining() ) {
+					return false;
+				}
+				ws.outQueue.poll(); // Buffer finished. Remove it.
+				bufs[i] = null;
+			}
+		}
+	}
 }
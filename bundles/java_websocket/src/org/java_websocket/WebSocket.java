@@ -31,8 +31,10 @@ import java.nio.channels.NotYetConnectedException;
 import java.util.Collection;
 
 import org.java_websocket.drafts.Draft;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.framing.Framedata.Opcode;
+import org.java_websocket.util.FrameOutputStream;
 
 public interface WebSocket {
 	/**
@@ -91,9 +93,16 @@ public interface WebSocket {
 
 	/**
 	 * Send Text data to the other end.
+	 * <p>
+	 * The frames are queued for the thread which writes to the socket. If the queue of the connection is full, because the peer does not read as fast as
+	 * data is sent, the calling thread waits until there is room again (see {@link AbstractWebSocket#setOutQueueCapacity(int)}). If a timeout was
+	 * configured with {@link AbstractWebSocket#setOutQueueTimeout(int)} and it expires, the connection is closed with
+	 * {@link org.java_websocket.framing.CloseFrame#ABNORMAL_CLOSE} and a {@link WebsocketNotConnectedException} is thrown.
+	 * A send from within a callback which the server runs on its selector thread cannot wait and fails the same way right away.
 	 *
 	 * @param text the text data to send
 	 * @throws NotYetConnectedException websocket is not yet connected
+	 * @throws WebsocketNotConnectedException the connection is closed, or was closed because the peer did not read the queued data
 	 */
 	void send( String text ) throws NotYetConnectedException;
 
@@ -103,6 +112,7 @@ public interface WebSocket {
 	 * @param bytes the binary data to send
 	 * @throws IllegalArgumentException the data is null
 	 * @throws NotYetConnectedException websocket is not yet connected
+	 * @throws WebsocketNotConnectedException the connection is closed, or was closed because the peer did not read the queued data, see {@link #send(String)}
 	 */
 	void send( ByteBuffer bytes ) throws IllegalArgumentException , NotYetConnectedException;
 
@@ -112,9 +122,23 @@ public interface WebSocket {
 	 * @param bytes the byte array to send
 	 * @throws IllegalArgumentException the data is null
 	 * @throws NotYetConnectedException websocket is not yet connected
+	 * @throws WebsocketNotConnectedException the connection is closed, or was closed because the peer did not read the queued data, see {@link #send(String)}
 	 */
 	void send( byte[] bytes ) throws IllegalArgumentException , NotYetConnectedException;
 
+	/**
+	 * Send the payload collected in the given stream as a single message to the other end.
+	 * The payload is framed in place if the draft supports it, afterwards the stream is empty and can be used for the next message.
+	 *
+	 * @param opcode the type of the message, Opcode.TEXT or Opcode.BINARY
+	 * @param payload the stream containing the payload
+	 * @throws IllegalArgumentException the data is null or the opcode is not allowed
+	 * @throws NotYetConnectedException websocket is not yet connected
+	 * @throws WebsocketNotConnectedException the connection is closed, or was closed because the peer did not read the queued data, see {@link #send(String)}
+	 * @since 1.4.1
+	 */
+	void send( Opcode opcode, FrameOutputStream payload ) throws IllegalArgumentException , NotYetConnectedException;
+
 	/**
 	 * Send a frame to the other end
 	 * @param framedata the frame to send to the other end
@@ -34,6 +34,9 @@ import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.HandshakeImpl1Server;
 import org.java_websocket.handshake.ServerHandshake;
 import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.util.Charsetfunctions;
+
+import java.nio.ByteBuffer;
 
 /**
  * This class default implements all methods of the WebSocketListener that can be overridden optionally when advances functionalities is needed.<br>
@@ -65,6 +68,16 @@ public abstract class WebSocketAdapter implements WebSocketListener {
 		//To overwrite
 	}
 
+	/**
+	 * This default implementation decodes the message and passes it to {@link #onWebsocketMessage(WebSocket, String)}.
+	 *
+	 * @see org.java_websocket.WebSocketListener#onWebsocketTextMessage(WebSocket, ByteBuffer)
+	 */
+	@Override
+	public void onWebsocketTextMessage( WebSocket conn, ByteBuffer message ) throws InvalidDataException {
+		onWebsocketMessage( conn, Charsetfunctions.stringUtf8( message ) );
+	}
+
 	/**
 	 * This default implementation does not do anything. Go ahead and overwrite it
 	 *
@@ -33,13 +33,18 @@ import org.java_websocket.exceptions.IncompleteHandshakeException;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.exceptions.InvalidHandshakeException;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.extensions.DefaultExtension;
 import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.framing.Framedata;
 import org.java_websocket.framing.Framedata.Opcode;
 import org.java_websocket.framing.PingFrame;
 import org.java_websocket.handshake.*;
 import org.java_websocket.server.WebSocketServer.WebSocketWorker;
+import org.java_websocket.util.ByteBufferUtils;
 import org.java_websocket.util.Charsetfunctions;
+import org.java_websocket.util.FrameOutputStream;
+import org.java_websocket.util.MpscArrayQueue;
+import org.java_websocket.util.WaitStrategy;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -48,12 +53,14 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents one end (client or server) of a single WebSocketImpl connection.
@@ -63,6 +70,45 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class WebSocketImpl implements WebSocket {
 	public static int RCVBUF = 16384;
 
+	/**
+	 * The default maximum number of data frames in the {@link #outQueue} of a connection. Threads which send while the queue is full wait until it was written to the socket.
+	 * Control frames may exceed the capacity by a small reserve. Servers and clients can override it with {@link AbstractWebSocket#setOutQueueCapacity(int)}.
+	 * @since 1.4.1
+	 */
+	public static int OUTQUEUE_CAPACITY = 1024;
+
+	/**
+	 * The default for how long a thread which sends waits for room in the full {@link #outQueue} at most, 0 to wait as long as the connection is open.
+	 * If the timeout is enabled the connection is closed abnormally when the peer did not read enough data meanwhile.
+	 * Servers and clients can override it with {@link AbstractWebSocket#setOutQueueTimeout(int)}.
+	 * @since 1.4.1
+	 */
+	public static int OUTQUEUE_TIMEOUT_MILLIS = 0;
+
+	/**
+	 * The number of slots of the {@link #outQueue} which only control frames may use, so pings and the close handshake do not wait for the data frames
+	 * @since 1.4.1
+	 */
+	public static final int OUTQUEUE_CONTROL_RESERVE = 16;
+
+	/**
+	 * The maximum number of buffers in the {@link #inQueue} of a connection. The server stops reading the connection while the queue is full.
+	 * @since 1.4.1
+	 */
+	public static int INQUEUE_CAPACITY = 64;
+
+	/**
+	 * The maximum number of buffers of the {@link #outQueue} which are written at once, with a single gathering write on the server or a single flush on the client.
+	 * @since 1.4.1
+	 */
+	public static int WRITE_BATCH = 64;
+
+	/**
+	 * How long a sending thread sleeps before it checks the full {@link #outQueue} again
+	 */
+	private static final long OUTQUEUE_WAIT_MILLIS = 1;
+
+
 	/**
 	 * Activate debug mode for additional infos
 	 */
@@ -70,16 +116,30 @@ public class WebSocketImpl implements WebSocket {
 
 	/**
 	 * Queue of buffers that need to be sent to the client.
+	 * It may be filled by any thread but must only be consumed by the thread which writes to the socket.
 	 */
 	public final BlockingQueue<ByteBuffer> outQueue;
 	/**
-	 * Queue of buffers that need to be processed
+	 * The {@link #outQueue}, for queueing the frames of a message as one contiguous run
+	 */
+	private final MpscArrayQueue<ByteBuffer> outRing;
+	/**
+	 * Queue of buffers that need to be processed.
+	 * It must only be consumed by the thread which decodes the buffers ( {@link #workerThread} ).
 	 */
 	public final BlockingQueue<ByteBuffer> inQueue;
 	/**
 	 * The listener to notify of WebSocket events.
 	 */
 	private final WebSocketListener wsl;
+	/**
+	 * The maximum number of data frames in the {@link #outQueue}, the queue itself may have more slots
+	 */
+	private final int outQueueCapacity;
+	/**
+	 * How long a sending thread waits for room in the {@link #outQueue} in milliseconds, 0 without limit
+	 */
+	private final int outQueueTimeout;
 	public SelectionKey key;
 	/**
 	 * the possibly wrapped channel object whose selection is controlled by {@link #key}
@@ -88,7 +148,29 @@ public class WebSocketImpl implements WebSocket {
 	/**
 	 * Helper variable meant to store the thread which ( exclusively ) triggers this objects decode method.
 	 **/
-	public volatile WebSocketWorker workerThread; // TODO reset worker?
+	public volatile WebSocketWorker workerThread;
+	/**
+	 * Helper variable meant to store the task which decodes the buffers of this object if the server decodes them on an executor.
+	 * @since 1.4.1
+	 **/
+	public volatile Runnable decoderTask;
+	/**
+	 * Helper variable meant to store the selector thread while it decodes the buffers of this object inline.<br>
+	 * That thread writes the outQueue itself, so a send from it fails at once if the queue stays full after a flush instead of waiting for room.
+	 * @since 1.4.1
+	 **/
+	public volatile Thread inlineDecoder;
+	/**
+	 * Helper variable meant to store the received buffers which wait for room in the {@link #inQueue}.<br>
+	 * Only the selector thread of this object accesses it, it does not read from the channel while the backlog holds buffers.
+	 * @since 1.4.1
+	 **/
+	public final Queue<ByteBuffer> backlog = new ArrayDeque<ByteBuffer>( 4 );
+	/**
+	 * Helper variable which tells the thread which decodes the buffers of this object to wake up the selector thread once it took a buffer from the {@link #inQueue}, because the selector thread stopped reading.
+	 * @since 1.4.1
+	 **/
+	public volatile boolean readPaused;
 	/**
 	 * When true no further frames may be submitted to be sent
 	 */
@@ -136,9 +218,23 @@ public class WebSocketImpl implements WebSocket {
 	private long lastPong = System.currentTimeMillis();
 
 	/**
-	 * Attribut to synchronize the write
+	 * Attribut to synchronize the write of this connection if an extension like permessage-deflate keeps state between the messages.
+	 * Frames are then created and queued while holding it, so the extension sees the messages in the order in which they are written.
+	 * Without such an extension the frames are queued without a lock, see {@link #hasStatefulEncoding()}.
+	 */
+	private final Object synchronizeWriteObject = new Object();
+
+	/**
+	 * Processes the frames as soon as the draft translated them
 	 */
-	private static final Object synchronizeWriteObject = new Object();
+	private final Draft.FrameConsumer frameConsumer = new Draft.FrameConsumer() {
+		@Override
+		public void consume( Framedata f ) throws InvalidDataException {
+			if( DEBUG )
+				System.out.println( "matched frame: " + f );
+			draft.processFrame( WebSocketImpl.this, f );
+		}
+	};
 
 	/**
 	 * Attribute to cache a ping frame
@@ -178,8 +274,16 @@ public class WebSocketImpl implements WebSocket {
 	public WebSocketImpl( WebSocketListener listener, Draft draft ) {
 		if( listener == null || ( draft == null && role == Role.SERVER ) )// socket can be null because we want do be able to create the object without already having a bound channel
 			throw new IllegalArgumentException( "parameters must not be null" );
-		this.outQueue = new LinkedBlockingQueue<ByteBuffer>();
-		inQueue = new LinkedBlockingQueue<ByteBuffer>();
+		if( listener instanceof AbstractWebSocket ) {
+			this.outQueueCapacity = ( ( AbstractWebSocket ) listener ).getOutQueueCapacity();
+			this.outQueueTimeout = ( ( AbstractWebSocket ) listener ).getOutQueueTimeout();
+		} else {
+			this.outQueueCapacity = OUTQUEUE_CAPACITY;
+			this.outQueueTimeout = OUTQUEUE_TIMEOUT_MILLIS;
+		}
+		this.outRing = new MpscArrayQueue<ByteBuffer>( outQueueCapacity + OUTQUEUE_CONTROL_RESERVE, WaitStrategy.PARK );
+		this.outQueue = outRing;
+		inQueue = new MpscArrayQueue<ByteBuffer>( INQUEUE_CAPACITY, WaitStrategy.PARK );
 		this.wsl = listener;
 		this.role = Role.CLIENT;
 		if( draft != null )
@@ -205,7 +309,7 @@ public class WebSocketImpl implements WebSocket {
 		assert ( socketBuffer.hasRemaining() );
 
 		if( DEBUG )
-			System.out.println( "process(" + socketBuffer.remaining() + "): {" + ( socketBuffer.remaining() > 1000 ? "too big to display" : new String( socketBuffer.array(), socketBuffer.position(), socketBuffer.remaining() ) ) + '}' );
+			System.out.println( "process(" + socketBuffer.remaining() + "): {" + ( socketBuffer.remaining() > 1000 ? "too big to display" : new String( ByteBufferUtils.toArray( socketBuffer ) ) ) + '}' );
 
 		if( getReadyState() != READYSTATE.NOT_YET_CONNECTED ) {
 			if( getReadyState() == READYSTATE.OPEN ) {
@@ -358,14 +462,8 @@ public class WebSocketImpl implements WebSocket {
 	}
 
 	private void decodeFrames( ByteBuffer socketBuffer ) {
-		List<Framedata> frames;
 		try {
-			frames = draft.translateFrame( socketBuffer );
-			for( Framedata f : frames ) {
-				if( DEBUG )
-					System.out.println( "matched frame: " + f );
-				draft.processFrame( this, f );
-			}
+			draft.translateFrame( socketBuffer, frameConsumer );
 		} catch ( InvalidDataException e1 ) {
 			wsl.onWebsocketError( this, e1 );
 			close( e1 );
@@ -603,6 +701,24 @@ public class WebSocketImpl implements WebSocket {
 		send( ByteBuffer.wrap( bytes ) );
 	}
 
+	@Override
+	public void send( Opcode opcode, FrameOutputStream payload ) throws IllegalArgumentException, WebsocketNotConnectedException {
+		if( payload == null )
+			throw new IllegalArgumentException( "Cannot send 'null' data to a WebSocketImpl." );
+		if( !isOpen() ) {
+			throw new WebsocketNotConnectedException();
+		}
+		if( DEBUG )
+			System.out.println( "send frame: " + opcode + " payload length: " + payload.size() );
+		if( !hasStatefulEncoding() ) {
+			write( draft.createBinaryFrame( opcode, payload ) );
+			return;
+		}
+		synchronized(synchronizeWriteObject) {
+			write( draft.createBinaryFrame( opcode, payload ) );
+		}
+	}
+
 	private void send( Collection<Framedata> frames ) {
 		if( !isOpen() ) {
 			throw new WebsocketNotConnectedException();
@@ -610,13 +726,43 @@ public class WebSocketImpl implements WebSocket {
 		if( frames == null ) {
 			throw new IllegalArgumentException();
 		}
-		ArrayList<ByteBuffer> outgoingFrames = new ArrayList<ByteBuffer>();
+		if( isControl( frames ) ) {
+			// control frames may be sent in between the frames of a fragmented message, they neither wait for the write lock nor for the data frames
+			for( Framedata f : frames ) {
+				if( DEBUG )
+					System.out.println( "send frame: " + f );
+				write( draft.createBinaryFrame( f ), true );
+			}
+			return;
+		}
+		if( !hasStatefulEncoding() ) {
+			// the frames of the message are queued as one run, so concurrent senders need no lock
+			write( createBinaryFrames( frames ) );
+			return;
+		}
+		synchronized(synchronizeWriteObject) {
+			write( createBinaryFrames( frames ) );
+		}
+	}
+
+	private List<ByteBuffer> createBinaryFrames( Collection<Framedata> frames ) {
+		ArrayList<ByteBuffer> outgoingFrames = new ArrayList<ByteBuffer>( frames.size() );
 		for( Framedata f : frames ) {
 			if( DEBUG )
 				System.out.println( "send frame: " + f );
 			outgoingFrames.add( draft.createBinaryFrame( f ) );
 		}
-		write( outgoingFrames );
+		return outgoingFrames;
+	}
+
+	/**
+	 * Whether the draft has to create the frames in the order in which they are queued.
+	 * This is the case if an extension transforms the payload, e.g. permessage-deflate compresses with a deflater which is shared by all messages.
+	 *
+	 * @return true if the frames have to be created and queued while holding the write lock
+	 */
+	private boolean hasStatefulEncoding() {
+		return !( draft instanceof Draft_6455 ) || ( ( Draft_6455 ) draft ).getExtension().getClass() != DefaultExtension.class;
 	}
 
 	@Override
@@ -670,19 +816,21 @@ public class WebSocketImpl implements WebSocket {
 		write( draft.createHandshake( this.handshakerequest, role ) );
 	}
 
+	private static boolean isControl( Collection<Framedata> frames ) {
+		for( Framedata f : frames ) {
+			Opcode opcode = f.getOpcode();
+			if( opcode != Opcode.PING && opcode != Opcode.PONG && opcode != Opcode.CLOSING )
+				return false;
+		}
+		return !frames.isEmpty();
+	}
+
 	private void write( ByteBuffer buf ) {
-		if( DEBUG )
-			System.out.println( "write(" + buf.remaining() + "): {" + ( buf.remaining() > 1000 ? "too big to display" : new String( buf.array() ) ) + '}' );
-
-		outQueue.add( buf );
-		/*try {
-			outQueue.put( buf );
-		} catch ( InterruptedException e ) {
-			write( buf );
-			Thread.currentThread().interrupt(); // keep the interrupted status
-			e.printStackTrace();
-		}*/
-		wsl.onWriteDemand( this );
+		write( buf, false );
+	}
+
+	private void write( ByteBuffer buf, boolean control ) {
+		write( Collections.singletonList( buf ), control );
 	}
 
 	/**
@@ -691,11 +839,75 @@ public class WebSocketImpl implements WebSocket {
 	 * @param bufs the list of bytebuffer
 	 */
 	private void write( List<ByteBuffer> bufs ) {
-		synchronized(synchronizeWriteObject) {
-			for( ByteBuffer b : bufs ) {
-				write( b );
+		write( bufs, false );
+	}
+
+	/**
+	 * Queue frames for the thread which writes to the socket.
+	 * The frames are queued as one contiguous run, so they are not interleaved with the frames other threads write meanwhile.
+	 *
+	 * @param bufs    the frames
+	 * @param control whether the frames are control frames, which may use the reserved slots of the queue and do not wait
+	 */
+	private void write( List<ByteBuffer> bufs, boolean control ) {
+		if( DEBUG ) {
+			for( ByteBuffer buf : bufs )
+				System.out.println( "write(" + buf.remaining() + "): {" + ( buf.remaining() > 1000 ? "too big to display" : new String( ByteBufferUtils.toArray( buf ) ) ) + '}' );
+		}
+		if( !control && bufs.size() > outQueueCapacity ) {
+			// more frames than the queue can ever hold at once
+			bufs = Collections.singletonList( join( bufs ) );
+		}
+
+		if( !offer( bufs, control ) ) {
+			// the peer does not keep up, wait for the writing thread to make room
+			wsl.onWriteDemand( this );
+			if( inlineDecoder == Thread.currentThread() && !offer( bufs, control ) ) {
+				// nobody else drains the queue while the selector thread waits here
+				closeConnection( CloseFrame.ABNORMAL_CLOSE, "the peer does not read the sent data" );
+				throw new WebsocketNotConnectedException();
+			}
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( outQueueTimeout );
+			try {
+				while( !offer( bufs, control ) ) {
+					if( isClosed() )
+						throw new WebsocketNotConnectedException();
+					if( control || ( outQueueTimeout > 0 && System.nanoTime() - deadline >= 0 ) ) {
+						closeConnection( CloseFrame.ABNORMAL_CLOSE, "the peer does not read the sent data" );
+						throw new WebsocketNotConnectedException();
+					}
+					Thread.sleep( OUTQUEUE_WAIT_MILLIS );
+					wsl.onWriteDemand( this );
+				}
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt(); // keep the interrupted status
+				throw new WebsocketNotConnectedException();
 			}
 		}
+		wsl.onWriteDemand( this );
+	}
+
+	private boolean offer( List<ByteBuffer> bufs, boolean control ) {
+		// data frames leave the rest of the queue, which is rounded up, to the control frames
+		int limit = control ? Integer.MAX_VALUE : outQueueCapacity;
+		return bufs.size() == 1 ? outRing.offer( bufs.get( 0 ), limit ) : outRing.offerAll( bufs, limit );
+	}
+
+	/**
+	 * Copy frames into a single buffer
+	 *
+	 * @param bufs the frames
+	 * @return a buffer containing the remaining bytes of all frames
+	 */
+	private static ByteBuffer join( List<ByteBuffer> bufs ) {
+		int length = 0;
+		for( ByteBuffer buf : bufs )
+			length += buf.remaining();
+		ByteBuffer joined = ByteBuffer.allocate( length );
+		for( ByteBuffer buf : bufs )
+			joined.put( buf );
+		joined.flip();
+		return joined;
 	}
 
 	private void open( Handshakedata d ) {
@@ -745,6 +957,26 @@ public class WebSocketImpl implements WebSocket {
 		this.readystate = readystate;
 	}
 
+	/**
+	 * Returns the maximum number of data frames in the {@link #outQueue}
+	 *
+	 * @return the capacity for data frames
+	 * @since 1.4.1
+	 */
+	public int getOutQueueCapacity() {
+		return outQueueCapacity;
+	}
+
+	/**
+	 * Returns how long a thread which sends waits for room in the full {@link #outQueue}
+	 *
+	 * @return the timeout in milliseconds, 0 if it waits as long as the connection is open
+	 * @since 1.4.1
+	 */
+	public int getOutQueueTimeout() {
+		return outQueueTimeout;
+	}
+
 	@Override
 	public int hashCode() {
 		return super.hashCode();
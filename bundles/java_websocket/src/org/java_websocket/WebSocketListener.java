@@ -100,6 +100,20 @@ public interface WebSocketListener {
 	 */
 	void onWebsocketMessage( WebSocket conn, String message );
 
+	/**
+	 * Called when an entire text frame has been received, before the payload is decoded to a String.
+	 * Implementations which are able to consume the UTF-8 encoded payload directly can avoid creating the String.
+	 * 
+	 * @param conn
+	 *            The <tt>WebSocket</tt> instance this event is occurring on.
+	 * @param message
+	 *            The UTF-8 encoded message that was received.
+	 * @throws InvalidDataException
+	 *             the message is no valid UTF-8
+	 * @since 1.4.1
+	 */
+	void onWebsocketTextMessage( WebSocket conn, ByteBuffer message ) throws InvalidDataException;
+
 	/**
 	 * Called when an entire binary frame has been received. Do whatever you want
 	 * here...
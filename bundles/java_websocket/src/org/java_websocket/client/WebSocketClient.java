@@ -25,6 +25,7 @@
 
 package org.java_websocket.client;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -59,6 +60,8 @@ import org.java_websocket.framing.Framedata.Opcode;
 import org.java_websocket.handshake.HandshakeImpl1Client;
 import org.java_websocket.handshake.Handshakedata;
 import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.util.ByteBufferUtils;
+import org.java_websocket.util.FrameOutputStream;
 
 /**
  * A subclass must implement at least <var>onOpen</var>, <var>onClose</var>, and <var>onMessage</var> to be
@@ -275,7 +278,8 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
 			}
 
 			istream = socket.getInputStream();
-			ostream = socket.getOutputStream();
+			// frames which are written at once leave in as few segments as possible
+			ostream = new BufferedOutputStream( socket.getOutputStream(), WebSocketImpl.RCVBUF );
 
 			sendHandshake();
 		} catch ( /*IOException | SecurityException | UnresolvedAddressException | InvalidHandshakeException | ClosedByInterruptException | SocketTimeoutException */Exception e ) {
@@ -533,14 +537,18 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
 				try {
 					while( !Thread.interrupted() ) {
 						ByteBuffer buffer = engine.outQueue.take();
-						ostream.write( buffer.array(), 0, buffer.limit() );
+						// the frames which are already waiting are flushed together
+						int batched = 0;
+						do {
+							write( buffer );
+						} while( ++batched < WebSocketImpl.WRITE_BATCH && ( buffer = engine.outQueue.poll() ) != null );
 						ostream.flush();
 					}
 				} catch ( InterruptedException e ) {
 					for (ByteBuffer buffer : engine.outQueue) {
-						ostream.write( buffer.array(), 0, buffer.limit() );
-						ostream.flush();
+						write( buffer );
 					}
+					ostream.flush();
 				}
 			} catch ( IOException e ) {
 				handleIOException( e );
@@ -548,6 +556,14 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
 				closeSocket();
 			}
 		}
+
+		private void write( ByteBuffer buffer ) throws IOException {
+			if( buffer.hasArray() ) {
+				ostream.write( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining() );
+			} else {
+				ostream.write( ByteBufferUtils.toArray( buffer ) );
+			}
+		}
 	}
 
 	/**
@@ -641,6 +657,11 @@ public abstract class WebSocketClient extends AbstractWebSocket implements Runna
 		engine.send( bytes );
 	}
 
+	@Override
+	public void send( Opcode opcode, FrameOutputStream payload ) throws IllegalArgumentException , NotYetConnectedException {
+		engine.send( opcode, payload );
+	}
+
 	@Override
 	public void sendFrame( Framedata framedata ) {
 		engine.sendFrame( framedata );
@@ -37,6 +37,7 @@ import org.java_websocket.exceptions.IncompleteHandshakeException;
 import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.exceptions.InvalidHandshakeException;
 import org.java_websocket.exceptions.LimitExedeedException;
+import org.java_websocket.exceptions.NotSendableException;
 import org.java_websocket.framing.*;
 import org.java_websocket.framing.Framedata.Opcode;
 import org.java_websocket.handshake.ClientHandshake;
@@ -48,6 +49,7 @@ import org.java_websocket.handshake.Handshakedata;
 import org.java_websocket.handshake.ServerHandshake;
 import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.util.Charsetfunctions;
+import org.java_websocket.util.FrameOutputStream;
 
 /**
  * Base class for everything of a websocket specification which is not common such as the way the handshake is read or frames are transfered.
@@ -70,6 +72,20 @@ public abstract class Draft {
 		NONE, ONEWAY, TWOWAY
 	}
 
+	/**
+	 * Receives the frames which are translated from the received data
+	 * @since 1.4.1
+	 */
+	public interface FrameConsumer {
+		/**
+		 * Called for every complete frame in the order in which the frames were received
+		 *
+		 * @param frame the frame
+		 * @throws InvalidDataException if the frame is not valid, the remaining data is not translated then
+		 */
+		void consume( Framedata frame ) throws InvalidDataException;
+	}
+
 	public static int MAX_FAME_SIZE = 1000;
 	public static int INITIAL_FAMESIZE = 64;
 
@@ -173,6 +189,39 @@ public abstract class Draft {
 
 	public abstract List<Framedata> createFrames( String text, boolean mask );
 
+	/**
+	 * Create the binary representation of a complete data message whose payload was written into a {@link FrameOutputStream}.
+	 * <p>
+	 * This default implementation copies the payload into a regular frame. Drafts which are able to write the frame header
+	 * into the space reserved by the stream may override this method to avoid the copy.
+	 * Afterwards the stream is empty and can be used for the next message.
+	 *
+	 * @param opcode the opcode of the message, only Opcode.BINARY or Opcode.TEXT are allowed
+	 * @param payload the stream containing the payload
+	 * @return the frame as ByteBuffer
+	 * @since 1.4.1
+	 */
+	public ByteBuffer createBinaryFrame( Opcode opcode, FrameOutputStream payload ) {
+		DataFrame frame;
+		if( opcode == Opcode.BINARY ) {
+			frame = new BinaryFrame();
+		} else if( opcode == Opcode.TEXT ) {
+			frame = new TextFrame();
+		} else {
+			throw new IllegalArgumentException( "Only Opcode.BINARY or  Opcode.TEXT are allowed" );
+		}
+		frame.setPayload( payload.getPayload() );
+		frame.setTransferemasked( role == Role.CLIENT );
+		try {
+			frame.isValid();
+		} catch ( InvalidDataException e ) {
+			throw new NotSendableException( e );
+		}
+		ByteBuffer result = createBinaryFrame( frame );
+		payload.reset();
+		return result;
+	}
+
 
 	/**
 	 * Handle the frame specific to the draft
@@ -257,6 +306,23 @@ public abstract class Draft {
 
 	public abstract List<Framedata> translateFrame( ByteBuffer buffer ) throws InvalidDataException;
 
+	/**
+	 * Translates the received data into frames and hands each complete frame to the consumer as soon as it was translated.
+	 * Data of an incomplete frame is kept until the frame is completed by the next call.
+	 * <p>
+	 * The default implementation hands over the frames of {@link #translateFrame(ByteBuffer)}.
+	 *
+	 * @param buffer   the received data
+	 * @param consumer the consumer of the frames
+	 * @throws InvalidDataException if the data is not valid
+	 * @since 1.4.1
+	 */
+	public void translateFrame( ByteBuffer buffer, FrameConsumer consumer ) throws InvalidDataException {
+		for( Framedata frame : translateFrame( buffer ) ) {
+			consumer.consume( frame );
+		}
+	}
+
 	public abstract CloseHandshakeType getCloseHandshakeType();
 
 	/**
@@ -36,7 +36,6 @@ import org.java_websocket.protocols.Protocol;
 import org.java_websocket.util.*;
 import org.java_websocket.util.Base64;
 
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -80,9 +79,34 @@ public class Draft_6455 extends Draft {
 	private List<ByteBuffer> byteBufferList;
 
 	/**
-	 * Attribute for the current incomplete frame
+	 * The maximum size of a frame header: 2 bytes base header, 8 bytes extended payload length, 4 bytes mask key
 	 */
-	private ByteBuffer incompleteframe;
+	private static final int MAX_HEADER_SIZE = 14;
+
+	/**
+	 * The bytes of the header of the current frame which were received so far
+	 */
+	private final byte[] header = new byte[MAX_HEADER_SIZE];
+
+	/**
+	 * The number of bytes in {@link #header}
+	 */
+	private int headerLength = 0;
+
+	/**
+	 * The size of the header of the current frame, known once the first two bytes were received
+	 */
+	private int headerSize = 2;
+
+	/**
+	 * The offset of the mask key in {@link #header}, -1 if the current frame is not masked
+	 */
+	private int maskOffset = -1;
+
+	/**
+	 * The payload of the current frame once its header is complete, null while the header is received
+	 */
+	private ByteBuffer payload;
 
 	/**
 	 * Attribute for the reusable random instance
@@ -326,16 +350,103 @@ public class Draft_6455 extends Draft {
 		return createByteBufferFromFramedata( framedata );
 	}
 
+	/**
+	 * Create the frame header and the payload in place.
+	 * <p>
+	 * The header is written into the space the stream reserved in front of the payload and on the client side the payload is masked in place,
+	 * so the payload is handed to the socket without being copied again.
+	 * Extensions may need to transform the payload, in that case the regular way over {@link #createBinaryFrame(Framedata)} is used.
+	 */
+	@Override
+	public ByteBuffer createBinaryFrame( Framedata.Opcode opcode, FrameOutputStream payload ) {
+		if( opcode != Framedata.Opcode.BINARY && opcode != Framedata.Opcode.TEXT ) {
+			throw new IllegalArgumentException( "Only Opcode.BINARY or  Opcode.TEXT are allowed" );
+		}
+		if( getExtension().getClass() != DefaultExtension.class ) {
+			return super.createBinaryFrame( opcode, payload );
+		}
+		if( opcode == Framedata.Opcode.TEXT && !Charsetfunctions.isValidUTF8( payload.getPayload() ) ) {
+			throw new NotSendableException( new InvalidDataException( CloseFrame.NO_UTF8, "Text is no valid utf8 string!" ) );
+		}
+		boolean mask = role == WebSocket.Role.CLIENT;
+		int length = payload.size();
+		int headerLength = getHeaderLength( length, mask );
+		byte[] array = payload.array();
+		int payloadStart = FrameOutputStream.HEADROOM;
+		ByteBuffer header = ByteBuffer.wrap( array, payloadStart - headerLength, headerLength );
+		putHeader( header, ( byte ) ( -128 | fromOpcode( opcode ) ), length, mask );
+		if( mask ) {
+			int maskkey = reuseableRandom.nextInt();
+			header.putInt( maskkey );
+			Masking.mask( array, payloadStart, length, maskkey );
+		}
+		assert ( !header.hasRemaining() ) : header.remaining();
+		return payload.detach( headerLength );
+	}
+
 	private ByteBuffer createByteBufferFromFramedata( Framedata framedata ) {
 		ByteBuffer mes = framedata.getPayloadData();
 		boolean mask = role == WebSocket.Role.CLIENT; // framedata.getTransfereMasked();
-		int sizebytes = mes.remaining() <= 125 ? 1 : mes.remaining() <= 65535 ? 2 : 8;
-		ByteBuffer buf = ByteBuffer.allocate( 1 + ( sizebytes > 1 ? sizebytes + 1 : sizebytes ) + ( mask ? 4 : 0 ) + mes.remaining() );
+		ByteBuffer buf = ByteBuffer.allocate( getHeaderLength( mes.remaining(), mask ) + mes.remaining() );
 		byte optcode = fromOpcode( framedata.getOpcode() );
 		byte one = ( byte ) ( framedata.isFin() ? -128 : 0 );
+		if( framedata.isRSV1() )
+			one |= 0x40;
+		if( framedata.isRSV2() )
+			one |= 0x20;
+		if( framedata.isRSV3() )
+			one |= 0x10;
 		one |= optcode;
+		putHeader( buf, one, mes.remaining(), mask );
+
+		if( mask ) {
+			int maskkey = reuseableRandom.nextInt();
+			buf.putInt( maskkey );
+			Masking.mask( mes, buf, mes.remaining(), maskkey );
+		} else {
+			buf.put( mes );
+			//Reset the position of the bytebuffer e.g. for additional use
+			mes.flip();
+		}
+		assert ( buf.remaining() == 0 ) : buf.remaining();
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Get the number of bytes needed to represent the payload length
+	 *
+	 * @param length the payload length
+	 * @return 1, 2 or 8 bytes
+	 */
+	private int getSizeBytes( int length ) {
+		return length <= 125 ? 1 : length <= 65535 ? 2 : 8;
+	}
+
+	/**
+	 * Get the length of a frame header
+	 *
+	 * @param length the payload length
+	 * @param mask true, if the frame will be masked
+	 * @return the number of bytes of the frame header
+	 */
+	private int getHeaderLength( int length, boolean mask ) {
+		int sizebytes = getSizeBytes( length );
+		return 1 + ( sizebytes > 1 ? sizebytes + 1 : sizebytes ) + ( mask ? 4 : 0 );
+	}
+
+	/**
+	 * Write a frame header without the mask key
+	 *
+	 * @param buf the buffer to write the header into
+	 * @param one the first byte of the header containing fin, rsv and the opcode
+	 * @param length the payload length
+	 * @param mask true, if the mask bit should be set
+	 */
+	private void putHeader( ByteBuffer buf, byte one, int length, boolean mask ) {
+		int sizebytes = getSizeBytes( length );
 		buf.put( one );
-		byte[] payloadlengthbytes = toByteArray( mes.remaining(), sizebytes );
+		byte[] payloadlengthbytes = toByteArray( length, sizebytes );
 		assert ( payloadlengthbytes.length == sizebytes );
 
 		if( sizebytes == 1 ) {
@@ -348,22 +459,6 @@ public class Draft_6455 extends Draft {
 			buf.put( payloadlengthbytes );
 		} else
 			throw new RuntimeException( "Size representation not supported/specified" );
-
-		if( mask ) {
-			ByteBuffer maskkey = ByteBuffer.allocate( 4 );
-			maskkey.putInt( reuseableRandom.nextInt() );
-			buf.put( maskkey.array() );
-			for( int i = 0; mes.hasRemaining(); i++ ) {
-				buf.put( ( byte ) ( mes.get() ^ maskkey.get( i % 4 ) ) );
-			}
-		} else {
-			buf.put( mes );
-			//Reset the position of the bytebuffer e.g. for additional use
-			mes.flip();
-		}
-		assert ( buf.remaining() == 0 ) : buf.remaining();
-		buf.flip();
-		return buf;
 	}
 
 	public Framedata translateSingleFrame( ByteBuffer buffer ) throws IncompleteException, InvalidDataException {
@@ -398,20 +493,16 @@ public class Draft_6455 extends Draft {
 				realpacketsize += 2; // additional length bytes
 				if( maxpacketsize < realpacketsize )
 					throw new IncompleteException( realpacketsize );
-				byte[] sizebytes = new byte[3];
-				sizebytes[1] = buffer.get( /*1 + 1*/ );
-				sizebytes[2] = buffer.get( /*1 + 2*/ );
-				payloadlength = new BigInteger( sizebytes ).intValue();
+				payloadlength = ( buffer.get( /*1 + 1*/ ) & 0xFF ) << 8 | ( buffer.get( /*1 + 2*/ ) & 0xFF );
 			} else {
 				realpacketsize += 8; // additional length bytes
 				if( maxpacketsize < realpacketsize )
 					throw new IncompleteException( realpacketsize );
-				byte[] bytes = new byte[8];
+				long length = 0;
 				for( int i = 0; i < 8; i++ ) {
-					bytes[i] = buffer.get( /*1 + i*/ );
+					length = length << 8 | ( buffer.get( /*1 + i*/ ) & 0xFF );
 				}
-				long length = new BigInteger( bytes ).longValue();
-				if( length > Integer.MAX_VALUE ) {
+				if( length > Integer.MAX_VALUE || length < 0 ) {
 					throw new LimitExedeedException( "Payloadsize is to big..." );
 				} else {
 					payloadlength = ( int ) length;
@@ -429,14 +520,13 @@ public class Draft_6455 extends Draft {
 
 		ByteBuffer payload = ByteBuffer.allocate( checkAlloc( payloadlength ) );
 		if( MASK ) {
-			byte[] maskskey = new byte[4];
-			buffer.get( maskskey );
-			for( int i = 0; i < payloadlength; i++ ) {
-				payload.put( ( byte ) ( buffer.get( /*payloadstart + i*/ ) ^ maskskey[i % 4] ) );
-			}
+			int maskkey = buffer.getInt();
+			Masking.mask( buffer, payload, payloadlength, maskkey );
 		} else {
-			payload.put( buffer.array(), buffer.position(), payload.limit() );
-			buffer.position( buffer.position() + payload.limit() );
+			int limit = buffer.limit();
+			buffer.limit( buffer.position() + payloadlength );
+			payload.put( buffer );
+			buffer.limit( limit );
 		}
 
 		FramedataImpl1 frame = FramedataImpl1.get( optcode );
@@ -457,54 +547,130 @@ public class Draft_6455 extends Draft {
 
 	@Override
 	public List<Framedata> translateFrame( ByteBuffer buffer ) throws InvalidDataException {
-		while( true ) {
-			List<Framedata> frames = new LinkedList<Framedata>();
-			Framedata cur;
-			if( incompleteframe != null ) {
-				// complete an incomplete frame
-				try {
-					buffer.mark();
-					int available_next_byte_count = buffer.remaining();// The number of bytes received
-					int expected_next_byte_count = incompleteframe.remaining();// The number of bytes to complete the incomplete frame
-
-					if( expected_next_byte_count > available_next_byte_count ) {
-						// did not receive enough bytes to complete the frame
-						incompleteframe.put( buffer.array(), buffer.position(), available_next_byte_count );
-						buffer.position( buffer.position() + available_next_byte_count );
-						return Collections.emptyList();
-					}
-					incompleteframe.put( buffer.array(), buffer.position(), expected_next_byte_count );
-					buffer.position( buffer.position() + expected_next_byte_count );
-					cur = translateSingleFrame( ( ByteBuffer ) incompleteframe.duplicate().position( 0 ) );
-					frames.add( cur );
-					incompleteframe = null;
-				} catch ( IncompleteException e ) {
-					// extending as much as suggested
-					ByteBuffer extendedframe = ByteBuffer.allocate( checkAlloc( e.getPreferredSize() ) );
-					assert ( extendedframe.limit() > incompleteframe.limit() );
-					incompleteframe.rewind();
-					extendedframe.put( incompleteframe );
-					incompleteframe = extendedframe;
-					continue;
-				}
+		final List<Framedata> frames = new ArrayList<Framedata>();
+		translateFrame( buffer, new FrameConsumer() {
+			@Override
+			public void consume( Framedata frame ) {
+				frames.add( frame );
 			}
+		} );
+		return frames;
+	}
 
-			while( buffer.hasRemaining() ) {// Read as much as possible full frames
-				buffer.mark();
-				try {
-					cur = translateSingleFrame( buffer );
-					frames.add( cur );
-				} catch ( IncompleteException e ) {
-					// remember the incomplete data
-					buffer.reset();
-					int pref = e.getPreferredSize();
-					incompleteframe = ByteBuffer.allocate( checkAlloc( pref ) );
-					incompleteframe.put( buffer );
-					break;
-				}
+	/**
+	 * Translates the received data with a state machine which keeps the progress of an incomplete frame between calls.
+	 * The header of a frame is collected in a small array, the payload is read straight into the buffer which becomes the payload of the frame.
+	 */
+	@Override
+	public void translateFrame( ByteBuffer buffer, FrameConsumer consumer ) throws InvalidDataException {
+		while( true ) {
+			if( payload == null && !readHeader( buffer ) )
+				return;
+			readPayload( buffer );
+			if( payload.hasRemaining() )
+				return;
+			consumer.consume( completeFrame() );
+			if( !buffer.hasRemaining() )
+				return;
+		}
+	}
+
+	/**
+	 * Reads the header of the current frame and allocates its payload once the header is complete
+	 *
+	 * @return whether the header is complete
+	 */
+	private boolean readHeader( ByteBuffer buffer ) throws InvalidDataException {
+		while( headerLength < headerSize ) {
+			if( !buffer.hasRemaining() )
+				return false;
+			int count = Math.min( headerSize - headerLength, buffer.remaining() );
+			buffer.get( header, headerLength, count );
+			headerLength += count;
+			if( headerLength == 2 )
+				headerSize = getHeaderSize();
+		}
+		int payloadlength = header[1] & 0x7F;
+		int offset = 2;
+		if( payloadlength == 126 ) {
+			payloadlength = ( header[2] & 0xFF ) << 8 | ( header[3] & 0xFF );
+			offset = 4;
+		} else if( payloadlength == 127 ) {
+			long length = 0;
+			for( int i = 2; i < 10; i++ ) {
+				length = length << 8 | ( header[i] & 0xFF );
+			}
+			if( length > Integer.MAX_VALUE || length < 0 ) {
+				throw new LimitExedeedException( "Payloadsize is to big..." );
 			}
-			return frames;
+			payloadlength = ( int ) length;
+			offset = 10;
 		}
+		maskOffset = ( header[1] & 0x80 ) != 0 ? offset : -1;
+		payload = ByteBuffer.allocate( checkAlloc( payloadlength ) );
+		return true;
+	}
+
+	/**
+	 * @return the size of the header of the current frame, derived from its first two bytes
+	 */
+	private int getHeaderSize() throws InvalidDataException {
+		Framedata.Opcode optcode = toOpcode( ( byte ) ( header[0] & 15 ) );
+		int payloadlength = header[1] & 0x7F;
+		if( payloadlength > 125 && ( optcode == Framedata.Opcode.PING || optcode == Framedata.Opcode.PONG || optcode == Framedata.Opcode.CLOSING ) ) {
+			throw new InvalidFrameException( "more than 125 octets" );
+		}
+		int size = 2;
+		if( payloadlength == 126 ) {
+			size += 2;
+		} else if( payloadlength == 127 ) {
+			size += 8;
+		}
+		if( ( header[1] & 0x80 ) != 0 ) {
+			size += 4;
+		}
+		return size;
+	}
+
+	/**
+	 * Reads as much of the payload of the current frame as is available and unmasks it.
+	 * The received data may be in a heap or a direct buffer.
+	 */
+	private void readPayload( ByteBuffer buffer ) {
+		int count = Math.min( payload.remaining(), buffer.remaining() );
+		if( count == 0 )
+			return;
+		if( maskOffset >= 0 ) {
+			Masking.mask( buffer, payload, count, Masking.rotate( Masking.getKey( header, maskOffset ), payload.position() ) );
+		} else {
+			int limit = buffer.limit();
+			buffer.limit( buffer.position() + count );
+			payload.put( buffer );
+			buffer.limit( limit );
+		}
+	}
+
+	/**
+	 * Creates the frame whose payload is complete and prepares for the next frame
+	 */
+	private Framedata completeFrame() throws InvalidDataException {
+		byte b1 = header[0];
+		FramedataImpl1 frame = FramedataImpl1.get( toOpcode( ( byte ) ( b1 & 15 ) ) );
+		frame.setFin( ( b1 & 0x80 ) != 0 );
+		frame.setRSV1( ( b1 & 0x40 ) != 0 );
+		frame.setRSV2( ( b1 & 0x20 ) != 0 );
+		frame.setRSV3( ( b1 & 0x10 ) != 0 );
+		payload.flip();
+		frame.setPayload( payload );
+		payload = null;
+		headerLength = 0;
+		headerSize = 2;
+		getExtension().isFrameValid( frame );
+		getExtension().decodeFrame( frame );
+		if( WebSocketImpl.DEBUG )
+			System.out.println( "afterDecoding(" + frame.getPayloadData().remaining() + "): {" + ( frame.getPayloadData().remaining() > 1000 ? "too big to display" : new String( frame.getPayloadData().array() ) ) + '}' );
+		frame.isValid();
+		return frame;
 	}
 
 	@Override
@@ -535,7 +701,9 @@ public class Draft_6455 extends Draft {
 
 	@Override
 	public void reset() {
-		incompleteframe = null;
+		payload = null;
+		headerLength = 0;
+		headerSize = 2;
 		if( extension != null ) {
 			extension.reset();
 		}
@@ -661,7 +829,7 @@ public class Draft_6455 extends Draft {
 					((FramedataImpl1) current_continuous_frame).setPayload( getPayloadFromByteBufferList() );
 					((FramedataImpl1) current_continuous_frame ).isValid();
 					try {
-						webSocketImpl.getWebSocketListener().onWebsocketMessage( webSocketImpl, Charsetfunctions.stringUtf8( current_continuous_frame.getPayloadData() ) );
+						webSocketImpl.getWebSocketListener().onWebsocketTextMessage( webSocketImpl, current_continuous_frame.getPayloadData() );
 					} catch ( RuntimeException e ) {
 						webSocketImpl.getWebSocketListener().onWebsocketError( webSocketImpl, e );
 					}
@@ -693,7 +861,7 @@ public class Draft_6455 extends Draft {
 			throw new InvalidDataException( CloseFrame.PROTOCOL_ERROR, "Continuous frame sequence not completed." );
 		} else if( curop == Framedata.Opcode.TEXT ) {
 			try {
-				webSocketImpl.getWebSocketListener().onWebsocketMessage( webSocketImpl, Charsetfunctions.stringUtf8( frame.getPayloadData() ) );
+				webSocketImpl.getWebSocketListener().onWebsocketTextMessage( webSocketImpl, frame.getPayloadData() );
 			} catch ( RuntimeException e ) {
 				webSocketImpl.getWebSocketListener().onWebsocketError( webSocketImpl, e );
 			}
@@ -0,0 +1,597 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.java_websocket.extensions;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.exceptions.InvalidFrameException;
+import org.java_websocket.exceptions.LimitExedeedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+
+/**
+ * Implementation of the permessage-deflate extension specified by https://tools.ietf.org/html/rfc7692
+ * <p>
+ * The deflater and the inflater are kept for the whole connection, so unless context takeover is disabled
+ * every message is compressed with the previous messages as sliding window.
+ * java.util.zip only supports a window of 2^15 bytes for compression, therefore offers which limit the window
+ * of this endpoint are declined and no smaller window is requested from the other endpoint.
+ * <p>
+ * Optionally a preset dictionary is used for compression. Both endpoints have to know the same dictionary, which is identified
+ * by its Adler-32 checksum in the non standard parameter <code>x_dictionary_id</code>. Endpoints without the dictionary
+ * decline such an offer, so a client should offer the extension without dictionary as well.
+ *
+ * @since 1.4.1
+ */
+public class PerMessageDeflateExtension extends CompressionExtension {
+
+	/**
+	 * The registered name of the extension
+	 */
+	private static final String EXTENSION_REGISTERED_NAME = "permessage-deflate";
+
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+	private static final String DICTIONARY_ID = "x_dictionary_id";
+
+	/**
+	 * The window size used by java.util.zip.Deflater
+	 */
+	private static final int MAX_WINDOW_BITS = 15;
+
+	private static final int MIN_WINDOW_BITS = 8;
+
+	/**
+	 * The largest array the VM is able to allocate, also the largest payload the draft accepts for a frame
+	 */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/**
+	 * The tail of a sync flush which is removed from every compressed message
+	 */
+	private static final byte[] TAIL = { 0x00, 0x00, ( byte ) 0xFF, ( byte ) 0xFF };
+
+	/**
+	 * The compression level used for the deflater
+	 */
+	private final int compressionLevel;
+
+	/**
+	 * Messages with a smaller payload are sent uncompressed
+	 */
+	private final int threshold;
+
+	/**
+	 * Request that the server does not use the previous messages for compression
+	 */
+	private final boolean serverNoContextTakeover;
+
+	/**
+	 * Request that the client does not use the previous messages for compression
+	 */
+	private final boolean clientNoContextTakeover;
+
+	/**
+	 * The preset dictionary, null if none is used
+	 */
+	private final byte[] dictionary;
+
+	/**
+	 * The id of the preset dictionary, null if none is used
+	 */
+	private final String dictionaryId;
+
+	/**
+	 * Frames which inflate to a larger payload close the connection with {@link CloseFrame#TOOBIG}
+	 */
+	private int maxInflatedSize = MAX_ARRAY_SIZE;
+
+	/**
+	 * The negotiated response of the server
+	 */
+	private String negotiatedExtension = "";
+
+	/**
+	 * Reset the deflater after every message, negotiated in the handshake
+	 */
+	private boolean deflaterNoContextTakeover;
+
+	/**
+	 * Reset the inflater after every message, negotiated in the handshake
+	 */
+	private boolean inflaterNoContextTakeover;
+
+	private final Object deflaterLock = new Object();
+
+	private final Object inflaterLock = new Object();
+
+	private Deflater deflater;
+
+	private Inflater inflater;
+
+	/**
+	 * The decompressed payload of the current frame
+	 */
+	private byte[] inflated;
+
+	/**
+	 * The number of bytes in inflated
+	 */
+	private int inflatedCount;
+
+	/**
+	 * Is the message currently sent compressed
+	 */
+	private boolean deflating;
+
+	/**
+	 * Is the message currently received compressed
+	 */
+	private boolean inflating;
+
+	/**
+	 * Constructor for the extension with the default compression level and context takeover
+	 */
+	public PerMessageDeflateExtension() {
+		this( Deflater.DEFAULT_COMPRESSION, 0, false, false );
+	}
+
+	/**
+	 * Constructor for the extension
+	 *
+	 * @param compressionLevel        the compression level of the deflater
+	 * @param threshold               messages with a smaller payload are sent uncompressed
+	 * @param serverNoContextTakeover true, if the server should not use the previous messages for compression
+	 * @param clientNoContextTakeover true, if the client should not use the previous messages for compression
+	 */
+	public PerMessageDeflateExtension( int compressionLevel, int threshold, boolean serverNoContextTakeover, boolean clientNoContextTakeover ) {
+		this( compressionLevel, threshold, serverNoContextTakeover, clientNoContextTakeover, null );
+	}
+
+	/**
+	 * Constructor for the extension with a preset dictionary
+	 *
+	 * @param compressionLevel        the compression level of the deflater
+	 * @param threshold               messages with a smaller payload are sent uncompressed
+	 * @param serverNoContextTakeover true, if the server should not use the previous messages for compression
+	 * @param clientNoContextTakeover true, if the client should not use the previous messages for compression
+	 * @param dictionary              the preset dictionary for the deflater and the inflater, or null
+	 */
+	public PerMessageDeflateExtension( int compressionLevel, int threshold, boolean serverNoContextTakeover, boolean clientNoContextTakeover, byte[] dictionary ) {
+		if( compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION ) {
+			throw new IllegalArgumentException( "Invalid compression level: " + compressionLevel );
+		}
+		this.compressionLevel = compressionLevel;
+		this.threshold = threshold;
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		this.dictionary = dictionary;
+		this.dictionaryId = dictionary == null ? null : getDictionaryId( dictionary );
+	}
+
+	/**
+	 * Getter for the maximum size of the decompressed payload of a frame
+	 *
+	 * @return the maximum number of bytes a received frame may inflate to
+	 */
+	public int getMaxInflatedSize() {
+		return maxInflatedSize;
+	}
+
+	/**
+	 * Setter for the maximum size of the decompressed payload of a frame.
+	 * A received frame which inflates to more bytes closes the connection with {@link CloseFrame#TOOBIG}.
+	 * By default the limit is the largest payload a frame may have.
+	 *
+	 * @param maxInflatedSize the maximum number of bytes a received frame may inflate to
+	 */
+	public void setMaxInflatedSize( int maxInflatedSize ) {
+		if( maxInflatedSize < 0 ) {
+			throw new IllegalArgumentException( "maxInflatedSize must not be negative" );
+		}
+		this.maxInflatedSize = Math.min( maxInflatedSize, MAX_ARRAY_SIZE );
+	}
+
+	/**
+	 * Calculate the id of a preset dictionary
+	 *
+	 * @param dictionary the preset dictionary
+	 * @return the Adler-32 checksum of the dictionary as hex string
+	 */
+	public static String getDictionaryId( byte[] dictionary ) {
+		Adler32 checksum = new Adler32();
+		checksum.update( dictionary, 0, dictionary.length );
+		return Long.toHexString( checksum.getValue() );
+	}
+
+	/**
+	 * Getter for the id of the preset dictionary
+	 *
+	 * @return the id of the dictionary or null, if no dictionary is used
+	 */
+	public String getDictionaryId() {
+		return dictionaryId;
+	}
+
+	@Override
+	public void decodeFrame( Framedata inputFrame ) throws InvalidDataException {
+		if( !( inputFrame instanceof DataFrame ) ) {
+			return;
+		}
+		synchronized( inflaterLock ) {
+			if( inputFrame.getOpcode() != Framedata.Opcode.CONTINUOUS ) {
+				inflating = inputFrame.isRSV1();
+			}
+			if( !inflating ) {
+				return;
+			}
+			if( inflater == null ) {
+				inflater = new Inflater( true );
+				setDictionary( inflater );
+			}
+			ByteBuffer payload = inputFrame.getPayloadData();
+			inflated = new byte[( int ) Math.min( Math.max( 64, payload.remaining() * 2L ), maxInflatedSize + 1L )];
+			inflatedCount = 0;
+			try {
+				if( payload.hasArray() ) {
+					inflate( payload.array(), payload.arrayOffset() + payload.position(), payload.remaining() );
+				} else {
+					byte[] input = new byte[payload.remaining()];
+					payload.duplicate().get( input );
+					inflate( input, 0, input.length );
+				}
+				if( inputFrame.isFin() ) {
+					inflate( TAIL, 0, TAIL.length );
+					inflating = false;
+					// a final deflate block ends the stream as well
+					if( inflaterNoContextTakeover || inflater.finished() ) {
+						inflater.reset();
+						setDictionary( inflater );
+					}
+				}
+			} catch ( DataFormatException e ) {
+				throw new InvalidDataException( CloseFrame.POLICY_VALIDATION, e.getMessage() );
+			}
+			DataFrame frame = ( DataFrame ) inputFrame;
+			frame.setRSV1( false );
+			frame.setPayload( ByteBuffer.wrap( inflated, 0, inflatedCount ) );
+			inflated = null;
+		}
+	}
+
+	private void setDictionary( Inflater inflater ) {
+		if( dictionary != null ) {
+			inflater.setDictionary( dictionary );
+		}
+	}
+
+	/**
+	 * Inflate the input and append the result to inflated
+	 *
+	 * @param input the compressed data
+	 * @param off   the offset of the compressed data
+	 * @param len   the length of the compressed data
+	 * @throws DataFormatException    the compressed data is invalid
+	 * @throws LimitExedeedException the frame inflates to more than {@link #maxInflatedSize} bytes
+	 */
+	private void inflate( byte[] input, int off, int len ) throws DataFormatException, LimitExedeedException {
+		inflater.setInput( input, off, len );
+		while( true ) {
+			if( inflatedCount == inflated.length ) {
+				// one byte more than the limit tells whether the payload exceeds it
+				int length = ( int ) Math.min( inflated.length * 2L, maxInflatedSize + 1L );
+				if( length == inflated.length ) {
+					throw new LimitExedeedException( "Inflated payload exceeds " + maxInflatedSize + " bytes" );
+				}
+				inflated = Arrays.copyOf( inflated, length );
+			}
+			int n = inflater.inflate( inflated, inflatedCount, inflated.length - inflatedCount );
+			inflatedCount += n;
+			if( inflatedCount > maxInflatedSize ) {
+				throw new LimitExedeedException( "Inflated payload exceeds " + maxInflatedSize + " bytes" );
+			}
+			if( inflatedCount < inflated.length && ( n == 0 || inflater.needsInput() || inflater.finished() ) ) {
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void encodeFrame( Framedata inputFrame ) {
+		if( !( inputFrame instanceof DataFrame ) ) {
+			return;
+		}
+		synchronized( deflaterLock ) {
+			ByteBuffer payload = inputFrame.getPayloadData();
+			if( inputFrame.getOpcode() != Framedata.Opcode.CONTINUOUS ) {
+				deflating = !inputFrame.isFin() || payload.remaining() >= threshold;
+				( ( DataFrame ) inputFrame ).setRSV1( deflating );
+			}
+			if( !deflating ) {
+				return;
+			}
+			if( deflater == null ) {
+				deflater = new Deflater( compressionLevel, true );
+				if( dictionary != null ) {
+					deflater.setDictionary( dictionary );
+				}
+			}
+			if( payload.hasArray() ) {
+				deflater.setInput( payload.array(), payload.arrayOffset() + payload.position(), payload.remaining() );
+			} else {
+				byte[] input = new byte[payload.remaining()];
+				payload.duplicate().get( input );
+				deflater.setInput( input );
+			}
+			byte[] output = new byte[Math.max( 64, payload.remaining() / 2 + 16 )];
+			int count = 0;
+			while( true ) {
+				count += deflater.deflate( output, count, output.length - count, Deflater.SYNC_FLUSH );
+				if( count < output.length ) {
+					break;
+				}
+				output = Arrays.copyOf( output, output.length * 2 );
+			}
+			if( inputFrame.isFin() ) {
+				if( endsWithTail( output, count ) ) {
+					count -= TAIL.length;
+				} else if( count == 0 ) {
+					// nothing was flushed, an empty stored block completes the message
+					output[count++] = 0x00;
+				}
+				deflating = false;
+				if( deflaterNoContextTakeover ) {
+					deflater.reset();
+					if( dictionary != null ) {
+						deflater.setDictionary( dictionary );
+					}
+				}
+			}
+			( ( DataFrame ) inputFrame ).setPayload( ByteBuffer.wrap( output, 0, count ) );
+		}
+	}
+
+	private static boolean endsWithTail( byte[] output, int count ) {
+		if( count < TAIL.length ) {
+			return false;
+		}
+		for( int i = 0; i < TAIL.length; i++ ) {
+			if( output[count - TAIL.length + i] != TAIL[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean acceptProvidedExtensionAsServer( String inputExtension ) {
+		for( String offer : inputExtension.split( "," ) ) {
+			Map<String, String> parameters = parseExtension( offer );
+			if( parameters == null ) {
+				continue;
+			}
+			boolean serverNoContext = serverNoContextTakeover;
+			boolean clientNoContext = clientNoContextTakeover;
+			boolean serverMaxWindowBits = false;
+			boolean acceptable = true;
+			for( Map.Entry<String, String> parameter : parameters.entrySet() ) {
+				String name = parameter.getKey();
+				if( SERVER_NO_CONTEXT_TAKEOVER.equals( name ) ) {
+					serverNoContext = true;
+				} else if( CLIENT_NO_CONTEXT_TAKEOVER.equals( name ) ) {
+					clientNoContext = true;
+				} else if( SERVER_MAX_WINDOW_BITS.equals( name ) ) {
+					// the window of the deflater cannot be limited
+					acceptable = getWindowBits( parameter.getValue() ) == MAX_WINDOW_BITS;
+					serverMaxWindowBits = true;
+				} else if( CLIENT_MAX_WINDOW_BITS.equals( name ) ) {
+					// the client supports a limit, none is requested
+					acceptable = parameter.getValue() == null || getWindowBits( parameter.getValue() ) > 0;
+				} else if( DICTIONARY_ID.equals( name ) ) {
+					acceptable = dictionaryId != null && dictionaryId.equals( parameter.getValue() );
+				} else {
+					acceptable = false;
+				}
+				if( !acceptable ) {
+					break;
+				}
+			}
+			if( dictionaryId != null && !parameters.containsKey( DICTIONARY_ID ) ) {
+				acceptable = false;
+			}
+			if( acceptable ) {
+				deflaterNoContextTakeover = serverNoContext;
+				inflaterNoContextTakeover = clientNoContext;
+				negotiatedExtension = EXTENSION_REGISTERED_NAME
+						+ ( serverNoContext ? "; " + SERVER_NO_CONTEXT_TAKEOVER : "" )
+						+ ( clientNoContext ? "; " + CLIENT_NO_CONTEXT_TAKEOVER : "" )
+						// an accepted server_max_window_bits has to be confirmed, see RFC 7692 section 7.1.2.1
+						+ ( serverMaxWindowBits ? "; " + SERVER_MAX_WINDOW_BITS + "=" + MAX_WINDOW_BITS : "" )
+						+ ( dictionaryId != null ? "; " + DICTIONARY_ID + "=" + dictionaryId : "" );
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean acceptProvidedExtensionAsClient( String inputExtension ) {
+		for( String response : inputExtension.split( "," ) ) {
+			Map<String, String> parameters = parseExtension( response );
+			if( parameters == null ) {
+				continue;
+			}
+			boolean serverNoContext = false;
+			boolean clientNoContext = clientNoContextTakeover;
+			for( Map.Entry<String, String> parameter : parameters.entrySet() ) {
+				String name = parameter.getKey();
+				if( SERVER_NO_CONTEXT_TAKEOVER.equals( name ) ) {
+					serverNoContext = true;
+				} else if( CLIENT_NO_CONTEXT_TAKEOVER.equals( name ) ) {
+					clientNoContext = true;
+				} else if( SERVER_MAX_WINDOW_BITS.equals( name ) ) {
+					// the inflater handles every window size
+					if( getWindowBits( parameter.getValue() ) <= 0 ) {
+						return false;
+					}
+				} else if( DICTIONARY_ID.equals( name ) ) {
+					if( dictionaryId == null || !dictionaryId.equals( parameter.getValue() ) ) {
+						return false;
+					}
+				} else {
+					// client_max_window_bits was not offered
+					return false;
+				}
+			}
+			if( dictionaryId != null && !parameters.containsKey( DICTIONARY_ID ) ) {
+				return false;
+			}
+			deflaterNoContextTakeover = clientNoContext;
+			inflaterNoContextTakeover = serverNoContext;
+			negotiatedExtension = response.trim();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Parse a single extension of a Sec-WebSocket-Extensions header
+	 *
+	 * @param extension the extension with its parameters
+	 * @return the parameters and their values (null for parameters without value), or null if it is no permessage-deflate extension or a parameter is used twice
+	 */
+	private static Map<String, String> parseExtension( String extension ) {
+		String[] parts = extension.split( ";" );
+		if( !EXTENSION_REGISTERED_NAME.equalsIgnoreCase( parts[0].trim() ) ) {
+			return null;
+		}
+		Map<String, String> parameters = new LinkedHashMap<String, String>();
+		for( int i = 1; i < parts.length; i++ ) {
+			String part = parts[i].trim();
+			if( part.length() == 0 ) {
+				continue;
+			}
+			String value = null;
+			int separator = part.indexOf( '=' );
+			if( separator != -1 ) {
+				value = part.substring( separator + 1 ).trim();
+				if( value.length() >= 2 && value.startsWith( "\"" ) && value.endsWith( "\"" ) ) {
+					value = value.substring( 1, value.length() - 1 );
+				}
+				part = part.substring( 0, separator ).trim();
+			}
+			if( parameters.containsKey( part ) ) {
+				return null;
+			}
+			parameters.put( part, value );
+		}
+		return parameters;
+	}
+
+	/**
+	 * Parse the value of a max window bits parameter
+	 *
+	 * @param value the value of the parameter
+	 * @return the window bits or -1 if the value is not valid
+	 */
+	private static int getWindowBits( String value ) {
+		if( value == null ) {
+			return -1;
+		}
+		try {
+			int bits = Integer.parseInt( value );
+			return bits >= MIN_WINDOW_BITS && bits <= MAX_WINDOW_BITS ? bits : -1;
+		} catch ( NumberFormatException e ) {
+			return -1;
+		}
+	}
+
+	@Override
+	public void isFrameValid( Framedata inputFrame ) throws InvalidDataException {
+		if( inputFrame.getOpcode() == Framedata.Opcode.CONTINUOUS && inputFrame.isRSV1() ) {
+			throw new InvalidFrameException( "RSV1 bit must not be set on continuation frames" );
+		}
+		super.isFrameValid( inputFrame );
+	}
+
+	@Override
+	public String getProvidedExtensionAsClient() {
+		return EXTENSION_REGISTERED_NAME
+				+ ( serverNoContextTakeover ? "; " + SERVER_NO_CONTEXT_TAKEOVER : "" )
+				+ ( clientNoContextTakeover ? "; " + CLIENT_NO_CONTEXT_TAKEOVER : "" )
+				+ ( dictionaryId != null ? "; " + DICTIONARY_ID + "=" + dictionaryId : "" );
+	}
+
+	@Override
+	public String getProvidedExtensionAsServer() {
+		return negotiatedExtension;
+	}
+
+	@Override
+	public IExtension copyInstance() {
+		PerMessageDeflateExtension copy = new PerMessageDeflateExtension( compressionLevel, threshold, serverNoContextTakeover, clientNoContextTakeover, dictionary );
+		copy.setMaxInflatedSize( maxInflatedSize );
+		return copy;
+	}
+
+	@Override
+	public void reset() {
+		synchronized( deflaterLock ) {
+			if( deflater != null ) {
+				deflater.end();
+				deflater = null;
+			}
+			deflating = false;
+		}
+		synchronized( inflaterLock ) {
+			if( inflater != null ) {
+				inflater.end();
+				inflater = null;
+			}
+			inflating = false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " " + ( negotiatedExtension.length() != 0 ? negotiatedExtension : getProvidedExtensionAsClient() );
+	}
+}
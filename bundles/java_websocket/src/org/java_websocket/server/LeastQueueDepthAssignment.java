@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.List;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.server.WebSocketServer.WebSocketWorker;
+
+/**
+ * Assigns new connections to the worker with the fewest queued buffers.
+ * <p>
+ * A connection whose worker falls behind the least busy worker by more than the rebalance threshold is moved to the least busy worker,
+ * the next time it has no data waiting, so a few busy connections which started out on the same worker do not stay pinned to it.
+ *
+ * @since 1.4.1
+ */
+public class LeastQueueDepthAssignment implements WorkerAssignmentStrategy {
+
+	/**
+	 * The default number of buffers by which a worker may fall behind before its connections are moved
+	 */
+	public static final int DEFAULT_REBALANCE_THRESHOLD = 4;
+
+	private final int rebalanceThreshold;
+
+	/**
+	 * Creates a strategy which rebalances with the {@link #DEFAULT_REBALANCE_THRESHOLD}
+	 */
+	public LeastQueueDepthAssignment() {
+		this( DEFAULT_REBALANCE_THRESHOLD );
+	}
+
+	/**
+	 * @param rebalanceThreshold the number of buffers by which a worker may fall behind before its connections are moved,
+	 *                           {@link Integer#MAX_VALUE} to never move a connection
+	 */
+	public LeastQueueDepthAssignment( int rebalanceThreshold ) {
+		if( rebalanceThreshold < 0 )
+			throw new IllegalArgumentException( "rebalanceThreshold must not be negative" );
+		this.rebalanceThreshold = rebalanceThreshold;
+	}
+
+	@Override
+	public WebSocketWorker assign( WebSocket conn, WebSocketWorker current, List<WebSocketWorker> workers ) {
+		WebSocketWorker least = null;
+		int leastDepth = Integer.MAX_VALUE;
+		for( WebSocketWorker worker : workers ) {
+			int depth = worker.getQueueDepth();
+			if( depth < leastDepth ) {
+				least = worker;
+				leastDepth = depth;
+			}
+		}
+		if( current != null && (long) current.getQueueDepth() - leastDepth <= rebalanceThreshold )
+			return current;
+		return least;
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.server.WebSocketServer.WebSocketWorker;
+
+/**
+ * Assigns the workers to new connections in turn. A connection keeps its worker for its whole lifetime.
+ * <p>
+ * This is the default strategy of a {@link WebSocketServer}.
+ *
+ * @since 1.4.1
+ */
+public class RoundRobinAssignment implements WorkerAssignmentStrategy {
+
+	private final AtomicInteger next = new AtomicInteger( 0 );
+
+	@Override
+	public WebSocketWorker assign( WebSocket conn, WebSocketWorker current, List<WebSocketWorker> workers ) {
+		if( current != null )
+			return current;
+		return workers.get( ( next.getAndIncrement() & Integer.MAX_VALUE ) % workers.size() );
+	}
+}
@@ -29,9 +29,12 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ScatteringByteChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -39,8 +42,11 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -53,6 +59,9 @@ import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.handshake.Handshakedata;
 import org.java_websocket.handshake.ServerHandshakeBuilder;
+import org.java_websocket.util.ByteBufferPool;
+import org.java_websocket.util.MpscArrayQueue;
+import org.java_websocket.util.WaitStrategy;
 
 /**
  * <tt>WebSocketServer</tt> is an abstract class that only takes care of the
@@ -62,8 +71,33 @@ import org.java_websocket.handshake.ServerHandshakeBuilder;
  */
 public abstract class WebSocketServer extends AbstractWebSocket implements Runnable {
 
+	/**
+	 * The default number of {@link WebSocketWorker}s, 0 to decode the received data on the selector thread
+	 */
 	public static int DECODERS = Runtime.getRuntime().availableProcessors();
 
+	/**
+	 * The number of connections which wait to be decoded by a {@link WebSocketWorker} it keeps in its ring queue, further ones wait in a linked overflow queue.
+	 * The selector threads never wait for a worker, the amount of data which waits to be decoded is limited by {@link WebSocketImpl#INQUEUE_CAPACITY} per connection.
+	 * @since 1.4.1
+	 */
+	public static int WORKERQUEUE_CAPACITY = 1024;
+
+	/**
+	 * How long a selector thread which stopped reading connections because their inQueue is full waits at most before it checks whether it can read them again
+	 */
+	private static final int PAUSED_SELECT_TIMEOUT = 10;
+
+	/**
+	 * How long an idle {@link WebSocketWorker} waits at most before it checks its overflow queue
+	 */
+	private static final long OVERFLOW_CHECK_MILLIS = 100;
+
+	/**
+	 * The maximum number of connections which are accepted at once before the selector serves other keys again
+	 */
+	private static final int ACCEPT_BATCH = 64;
+
 	/**
 	 * Holds the list of active WebSocket connections. "Active" means WebSocket
 	 * handshake is complete and socket can be written to, or read from.
@@ -94,12 +128,70 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 	protected List<WebSocketWorker> decoders;
 
 	private List<WebSocketImpl> iqueue;
+	/**
+	 * The connections of {@link #selectorthread} which are not read because their inQueue is full
+	 */
+	private final List<WebSocketImpl> paused = new LinkedList<WebSocketImpl>();
 	private BlockingQueue<ByteBuffer> buffers;
-	private int queueinvokes = 0;
 	private final AtomicInteger queuesize = new AtomicInteger( 0 );
 
+	/**
+	 * The number of connections which {@link #allocateBuffers(WebSocket)} was called for, guarded by {@link #buffers}
+	 */
+	private int bufferedconnections = 0;
+
+	/**
+	 * Provides the buffers the connections are read into
+	 */
+	private ByteBufferPool bufferPool = new ByteBufferPool( false );
+
 	private WebSocketServerFactory wsf = new DefaultWebSocketServerFactory();
 
+	/**
+	 * The number of selector threads which serve the connections, 0 if {@link #selectorthread} serves them
+	 */
+	private int selectorcount = 0;
+
+	/**
+	 * The selector threads which serve the connections
+	 */
+	private final List<WebSocketReactor> reactors = new ArrayList<WebSocketReactor>();
+
+	/**
+	 * The number of keys the selector threads served since the accepting thread last checked, used to delay the shutdown
+	 */
+	private final AtomicInteger reactorKeys = new AtomicInteger( 0 );
+
+	/**
+	 * Whether the server socket is bound with SO_REUSEPORT
+	 */
+	private boolean reusePort = false;
+
+	/**
+	 * Chooses the worker of a connection
+	 */
+	private WorkerAssignmentStrategy assignment = new RoundRobinAssignment();
+
+	/**
+	 * Decodes the received data instead of the {@link #decoders}, null to use them
+	 */
+	private Executor decoderExecutor = null;
+
+	/**
+	 * The maximum number of buffers a task of the {@link #decoderExecutor} decodes before it lets other connections go first
+	 */
+	private static final int DECODE_BATCH = 16;
+
+	/**
+	 * Reads of up to this many bytes are decoded on the selector thread, 0 to hand all reads over
+	 */
+	private int inlineDecodeThreshold = 0;
+
+	/**
+	 * The maximum number of bytes read from a connection per readiness event, reads beyond {@link WebSocketImpl#RCVBUF} are scattering reads
+	 */
+	private int readBudget = 0;
+
 	/**
 	 * Creates a WebSocketServer that will attempt to
 	 * listen on port <var>WebSocket.DEFAULT_PORT</var>.
@@ -168,7 +260,8 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 	 * @param address
 	 *            The address (host:port) this server should listen on.
 	 * @param decodercount
-	 *            The number of {@link WebSocketWorker}s that will be used to process the incoming network data. By default this will be <code>Runtime.getRuntime().availableProcessors()</code>
+	 *            The number of {@link WebSocketWorker}s that will be used to process the incoming network data. By default this will be <code>Runtime.getRuntime().availableProcessors()</code>.
+	 *            With 0 the data is decoded on the selector thread which read it.
 	 * @param drafts
 	 *            The versions of the WebSocket protocol that this server
 	 *            instance should comply to. Clients that use an other protocol version will be rejected.
@@ -182,8 +275,8 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 	 * @see <a href="https://github.com/TooTallNate/Java-WebSocket/wiki/Drafts" > more about drafts</a>
 	 */
 	public WebSocketServer( InetSocketAddress address , int decodercount , List<Draft> drafts , Collection<WebSocket> connectionscontainer ) {
-		if( address == null || decodercount < 1 || connectionscontainer == null ) {
-			throw new IllegalArgumentException( "address and connectionscontainer must not be null and you need at least 1 decoder" );
+		if( address == null || decodercount < 0 || connectionscontainer == null ) {
+			throw new IllegalArgumentException( "address and connectionscontainer must not be null and the number of decoders must not be negative" );
 		}
 
 		if( drafts == null )
@@ -295,6 +388,198 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 		return Collections.unmodifiableList( drafts );
 	}
 
+	/**
+	 * Returns the number of selector threads which serve the connections.
+	 *
+	 * @return the number of selector threads, 0 if the accepting thread serves the connections
+	 * @since 1.4.1
+	 */
+	public int getSelectorCount() {
+		return selectorcount;
+	}
+
+	/**
+	 * Sets the number of selector threads which read from and write to the connections.
+	 * <p>
+	 * By default the thread which accepts the connections also serves all of them. With one or more selector threads
+	 * the accepting thread only accepts connections and registers each of them with the selector thread which serves the fewest connections.
+	 * Must be called before the server is started.
+	 *
+	 * @param selectorcount the number of selector threads, 0 to serve the connections on the accepting thread
+	 * @since 1.4.1
+	 */
+	public void setSelectorCount( int selectorcount ) {
+		if( selectorcount < 0 )
+			throw new IllegalArgumentException( "selectorcount must not be negative" );
+		this.selectorcount = selectorcount;
+	}
+
+	/**
+	 * Returns the strategy which chooses the worker of a connection.
+	 *
+	 * @return the worker assignment strategy
+	 * @since 1.4.1
+	 */
+	public WorkerAssignmentStrategy getWorkerAssignmentStrategy() {
+		return assignment;
+	}
+
+	/**
+	 * Sets the strategy which chooses the {@link WebSocketWorker} that decodes the received data of a connection.
+	 * By default the workers are assigned to new connections in turn, see {@link RoundRobinAssignment}.
+	 *
+	 * @param assignment the worker assignment strategy
+	 * @see LeastQueueDepthAssignment
+	 * @since 1.4.1
+	 */
+	public void setWorkerAssignmentStrategy( WorkerAssignmentStrategy assignment ) {
+		if( assignment == null )
+			throw new IllegalArgumentException( "assignment must not be null" );
+		this.assignment = assignment;
+	}
+
+	/**
+	 * Returns the executor which decodes the received data.
+	 *
+	 * @return the executor, null if the {@link WebSocketWorker}s decode the received data
+	 * @since 1.4.1
+	 */
+	public Executor getDecoderExecutor() {
+		return decoderExecutor;
+	}
+
+	/**
+	 * Decodes the received data on the given executor instead of the {@link WebSocketWorker}s.
+	 * <p>
+	 * The data of a connection is decoded by one task at a time and in the order in which it was received.
+	 * An executor whose threads steal work from each other, like a {@link java.util.concurrent.ForkJoinPool}, spreads the busy connections
+	 * across all of its threads instead of pinning them to a worker. The {@link WorkerAssignmentStrategy} is not used then.
+	 * <p>
+	 * Must be called before the server is started, the workers are stopped when it starts. The executor is not shut down by the server.
+	 *
+	 * @param executor the executor, null to decode on the workers
+	 * @since 1.4.1
+	 */
+	public void setDecoderExecutor( Executor executor ) {
+		this.decoderExecutor = executor;
+	}
+
+	/**
+	 * Returns the size up to which received data is decoded on the selector thread.
+	 *
+	 * @return the threshold in bytes, 0 if all data is handed over
+	 * @since 1.4.1
+	 */
+	public int getInlineDecodeThreshold() {
+		return inlineDecodeThreshold;
+	}
+
+	/**
+	 * Decodes small reads on the selector thread which read them instead of handing them to a {@link WebSocketWorker} or the decoder executor.
+	 * <p>
+	 * This saves the hand over and the wake up of another thread for small messages like pings or short replies.
+	 * A read is only decoded inline if the connection has no data which waits to be decoded by another thread, so the data is still decoded in order.
+	 * The callbacks like {@link #onMessage(WebSocket, String)} are called on the selector thread then and must not block.
+	 * Reads of a connection whose outQueue is more than half full are handed over, and a send from an inline callback which finds the outQueue full closes the connection instead of blocking the selector thread.
+	 * Without decoders all data is decoded inline.
+	 *
+	 * @param inlineDecodeThreshold the maximum number of bytes of a read which is decoded inline, 0 to hand all reads over
+	 * @since 1.4.1
+	 */
+	public void setInlineDecodeThreshold( int inlineDecodeThreshold ) {
+		if( inlineDecodeThreshold < 0 )
+			throw new IllegalArgumentException( "inlineDecodeThreshold must not be negative" );
+		this.inlineDecodeThreshold = inlineDecodeThreshold;
+	}
+
+	/**
+	 * Returns the maximum number of bytes which are read from a connection when it becomes readable.
+	 *
+	 * @return the read budget, 0 if a single buffer is read
+	 * @since 1.4.1
+	 */
+	public int getReadBudget() {
+		return readBudget;
+	}
+
+	/**
+	 * Drains connections which receive a lot of data with scattering reads.
+	 * <p>
+	 * When a read fills a whole buffer, the server reads up to the rest of the budget with scattering reads into buffers from the {@link #getBufferPool() buffer pool}
+	 * and hands the buffers of every read to the thread which decodes the connection in one go.
+	 * A large message then needs one select for the budget instead of one for every {@link WebSocketImpl#RCVBUF} bytes.
+	 * A read returns no more than the receive buffer of the socket holds, whose size is set from {@link WebSocketImpl#RCVBUF}.
+	 * Only channels which are {@link ScatteringByteChannel}s are read this way, which excludes encrypted connections.
+	 *
+	 * @param readBudget the maximum number of bytes read per readiness event, 0 or up to {@link WebSocketImpl#RCVBUF} to read a single buffer
+	 * @since 1.4.1
+	 */
+	public void setReadBudget( int readBudget ) {
+		if( readBudget < 0 )
+			throw new IllegalArgumentException( "readBudget must not be negative" );
+		this.readBudget = readBudget;
+	}
+
+	/**
+	 * Returns the pool which provides the buffers the connections are read into.
+	 *
+	 * @return the pool
+	 * @since 1.4.1
+	 */
+	public ByteBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Sets the pool which provides the buffers the connections are read into.
+	 * <p>
+	 * A pool of direct buffers saves the copy from a temporary direct buffer the JDK does for every read into a heap buffer.
+	 * A pool may be shared by several servers. The buffers are released to the pool when the connections close and when the server stops.
+	 * <p>
+	 * Must be called before the server is started.
+	 *
+	 * @param bufferPool the pool, by default a pool of heap buffers
+	 * @since 1.4.1
+	 */
+	public void setBufferPool( ByteBufferPool bufferPool ) {
+		if( bufferPool == null )
+			throw new IllegalArgumentException( "bufferPool must not be null" );
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Tests if the server socket will be bound with SO_REUSEPORT.
+	 *
+	 * @return a boolean indicating whether or not SO_REUSEPORT is enabled.
+	 * @since 1.4.1
+	 */
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
+	/**
+	 * Enable/disable SO_REUSEPORT for the server socket.
+	 * <p>
+	 * With SO_REUSEPORT several servers may listen on the same port and the operating system spreads the incoming connections across them.
+	 * Must be called before the server is started. The server fails to start if the option is not supported, see {@link #isReusePortSupported()}.
+	 *
+	 * @param reusePort whether to enable or disable SO_REUSEPORT
+	 * @since 1.4.1
+	 */
+	public void setReusePort( boolean reusePort ) {
+		this.reusePort = reusePort;
+	}
+
+	/**
+	 * Tests if the platform supports SO_REUSEPORT for server sockets. The option is available on Java 9 and later and not on every operating system.
+	 *
+	 * @return whether {@link #setReusePort(boolean)} can be enabled
+	 * @since 1.4.1
+	 */
+	public static boolean isReusePortSupported() {
+		return ReusePort.OPTION != null;
+	}
+
 	// Runnable IMPLEMENTATION /////////////////////////////////////////////////
 	public void run() {
 		synchronized ( this ) {
@@ -312,9 +597,24 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 			ServerSocket socket = server.socket();
 			socket.setReceiveBufferSize( WebSocketImpl.RCVBUF );
 			socket.setReuseAddress( isReuseAddr() );
+			if( reusePort ) {
+				if( !isReusePortSupported() )
+					throw new IOException( "SO_REUSEPORT is not supported" );
+				server.setOption( ReusePort.OPTION, Boolean.TRUE );
+			}
 			socket.bind( address );
 			selector = Selector.open();
 			server.register( selector, server.validOps() );
+			for( int i = 0 ; i < selectorcount ; i++ ) {
+				WebSocketReactor reactor = new WebSocketReactor();
+				reactors.add( reactor );
+				reactor.start();
+			}
+			if( decoderExecutor != null ) {
+				for( WebSocketWorker w : decoders ) {
+					w.interrupt();
+				}
+			}
 			startConnectionLostTimer();
 			onStart();
 		} catch ( IOException ex ) {
@@ -325,135 +625,29 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 					w.interrupt();
 				}
 			}
+			for( WebSocketReactor reactor : reactors ) {
+				reactor.interrupt();
+			}
 			return;
 		}
 		try {
 			int iShutdownCount = 5;
 			int selectTimeout = 0;
 			while ( !selectorthread.isInterrupted() && iShutdownCount != 0) {
-				SelectionKey key = null;
-				WebSocketImpl conn = null;
-				try {
-					if (isclosed.get()) {
-						selectTimeout = 5;
-					}
-					int keyCount = selector.select( selectTimeout );
-					if (keyCount == 0 && isclosed.get()) {
-						iShutdownCount--;
-					}
-					Set<SelectionKey> keys = selector.selectedKeys();
-					Iterator<SelectionKey> i = keys.iterator();
-
-					while ( i.hasNext() ) {
-						key = i.next();
-						conn = null;
-						
-						if( !key.isValid() ) {
-							// Object o = key.attachment();
-							continue;
-						}
-
-						if( key.isAcceptable() ) {
-							if( !onConnect( key ) ) {
-								key.cancel();
-								continue;
-							}
-
-							SocketChannel channel = server.accept();
-							if(channel==null){
-								continue;
-							}
-							channel.configureBlocking( false );
-							Socket socket = channel.socket();
-							socket.setTcpNoDelay( isTcpNoDelay() );
-							socket.setKeepAlive( true );
-							WebSocketImpl w = wsf.createWebSocket( this, drafts );
-							w.key = channel.register( selector, SelectionKey.OP_READ, w );
-							try {
-								w.channel = wsf.wrapChannel( channel, w.key );
-								i.remove();
-								allocateBuffers( w );
-								continue;
-							} catch (IOException ex) {
-								if( w.key != null )
-									w.key.cancel();
-
-								handleIOException( w.key, null, ex );
-							}
-							continue;
-						}
-
-						if( key.isReadable() ) {
-							conn = (WebSocketImpl) key.attachment();
-							ByteBuffer buf = takeBuffer();
-							if(conn.channel == null){
-								if( key != null )
-									key.cancel();
-								
-								handleIOException( key, conn, new IOException() );
-								continue;
-							}
-							try {
-								if( SocketChannelIOHelper.read( buf, conn, conn.channel ) ) {
-									if( buf.hasRemaining() ) {
-										conn.inQueue.put( buf );
-										queue( conn );
-										i.remove();
-										if( conn.channel instanceof WrappedByteChannel ) {
-											if( ( (WrappedByteChannel) conn.channel ).isNeedRead() ) {
-												iqueue.add( conn );
-											}
-										}
-									} else
-										pushBuffer( buf );
-								} else {
-									pushBuffer( buf );
-								}
-							} catch ( IOException e ) {
-								pushBuffer( buf );
-								throw e;
-							}
-						}
-						if( key.isWritable() ) {
-							conn = (WebSocketImpl) key.attachment();
-							if( SocketChannelIOHelper.batch( conn, conn.channel ) ) {
-								if( key.isValid() )
-									key.interestOps( SelectionKey.OP_READ );
-							}
-						}
-					}
-					while ( !iqueue.isEmpty() ) {
-						conn = iqueue.remove( 0 );
-						WrappedByteChannel c = ( (WrappedByteChannel) conn.channel );
-						ByteBuffer buf = takeBuffer();
-						try {
-							if( SocketChannelIOHelper.readMore( buf, conn, c ) )
-								iqueue.add( conn );
-							if( buf.hasRemaining() ) {
-								conn.inQueue.put( buf );
-								queue( conn );
-							} else {
-								pushBuffer( buf );
-							}
-						} catch ( IOException e ) {
-							pushBuffer( buf );
-							throw e;
-						}
-
-					}
-				} catch ( CancelledKeyException e ) {
-					// an other thread may cancel the key
-				} catch ( ClosedByInterruptException e ) {
-					return; // do the same stuff as when InterruptedException is thrown
-				} catch ( IOException ex ) {
-					if( key != null )
-						key.cancel();
-					handleIOException( key, conn, ex );
-				} catch ( InterruptedException e ) {
-					return;// FIXME controlled shutdown (e.g. take care of buffermanagement)
+				if (isclosed.get()) {
+					selectTimeout = 5;
+				}
+				int keyCount = select( selector, iqueue, paused, selectTimeout );
+				// the selector threads are still busy with the connections
+				if( !reactors.isEmpty() && reactorKeys.getAndSet( 0 ) > 0 ) {
+					keyCount++;
+				}
+				if (keyCount == 0 && isclosed.get()) {
+					iShutdownCount--;
 				}
 			}
-
+		} catch ( InterruptedException e ) {
+			// FIXME controlled shutdown (e.g. take care of buffermanagement)
 		} catch ( RuntimeException e ) {
 			// should hopefully never occur
 			handleFatal( null, e );
@@ -464,6 +658,9 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 					w.interrupt();
 				}
 			}
+			for( WebSocketReactor reactor : reactors ) {
+				reactor.interrupt();
+			}
 			if( selector != null ) {
 				try {
 					selector.close();
@@ -478,40 +675,412 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 					onError( null, e );
 				}
 			}
+			releaseBacklogs( paused );
+			// buffers which are still in use are released when they are pushed back
+			queuesize.set( 0 );
+			ByteBuffer buf;
+			while ( ( buf = buffers.poll() ) != null ) {
+				bufferPool.release( buf );
+			}
 		}
 	}
-	protected void allocateBuffers( WebSocket c ) throws InterruptedException {
-		if( queuesize.get() >= 2 * decoders.size() + 1 ) {
+
+	/**
+	 * Waits for the keys of a selector to become ready and serves them.
+	 *
+	 * @param sel      the selector to wait for
+	 * @param needRead the connections whose wrapped channel has more data to read, owned by the thread which calls this method
+	 * @param paused   the connections which are not read because their inQueue is full, owned by the thread which calls this method
+	 * @param timeout  the timeout of the select
+	 * @return the number of keys which became ready
+	 * @throws InterruptedException if the calling thread was interrupted
+	 */
+	private int select( Selector sel, List<WebSocketImpl> needRead, List<WebSocketImpl> paused, int timeout ) throws InterruptedException {
+		SelectionKey key = null;
+		WebSocketImpl conn = null;
+		int keyCount = 0;
+		try {
+			if( !paused.isEmpty() ) {
+				resume( paused, needRead );
+				// the decoders wake the selector up when they made room, but may miss that it has just paused a connection
+				if( !paused.isEmpty() && ( timeout == 0 || timeout > PAUSED_SELECT_TIMEOUT ) )
+					timeout = PAUSED_SELECT_TIMEOUT;
+			}
+			keyCount = sel.select( timeout );
+			Set<SelectionKey> keys = sel.selectedKeys();
+			Iterator<SelectionKey> i = keys.iterator();
+
+			while ( i.hasNext() ) {
+				key = i.next();
+				conn = null;
+
+				if( !key.isValid() ) {
+					// Object o = key.attachment();
+					continue;
+				}
+
+				if( key.isAcceptable() ) {
+					accept( key );
+					i.remove();
+					continue;
+				}
+
+				// a paused connection may still be among the selected keys
+				if( key.isReadable() && !( (WebSocketImpl) key.attachment() ).readPaused ) {
+					conn = (WebSocketImpl) key.attachment();
+					ByteBuffer buf = takeBuffer();
+					if(conn.channel == null){
+						if( key != null )
+							key.cancel();
+
+						handleIOException( key, conn, new IOException() );
+						pushBuffer( buf );
+						continue;
+					}
+					boolean full = false;
+					try {
+						if( SocketChannelIOHelper.read( buf, conn, conn.channel ) ) {
+							if( buf.hasRemaining() ) {
+								full = buf.remaining() == buf.capacity();
+								decodeOrQueue( conn, buf, paused );
+								i.remove();
+								if( !conn.readPaused && conn.channel instanceof WrappedByteChannel ) {
+									if( ( (WrappedByteChannel) conn.channel ).isNeedRead() ) {
+										needRead.add( conn );
+									}
+								}
+							} else
+								pushBuffer( buf );
+						} else {
+							pushBuffer( buf );
+						}
+					} catch ( IOException e ) {
+						pushBuffer( buf );
+						throw e;
+					}
+					if( full ) {
+						readScattering( conn, paused );
+					}
+				}
+				if( key.isWritable() ) {
+					conn = (WebSocketImpl) key.attachment();
+					if( SocketChannelIOHelper.batch( conn, conn.channel ) ) {
+						if( key.isValid() )
+							updateInterest( conn );
+					}
+				}
+			}
+			while ( !needRead.isEmpty() ) {
+				conn = needRead.remove( 0 );
+				if( conn.readPaused )
+					continue; // resume reads it once the backlog is handed over
+				WrappedByteChannel c = ( (WrappedByteChannel) conn.channel );
+				ByteBuffer buf = takeBuffer();
+				try {
+					if( SocketChannelIOHelper.readMore( buf, conn, c ) )
+						needRead.add( conn );
+					if( buf.hasRemaining() ) {
+						decodeOrQueue( conn, buf, paused );
+					} else {
+						pushBuffer( buf );
+					}
+				} catch ( IOException e ) {
+					pushBuffer( buf );
+					throw e;
+				}
+
+			}
+		} catch ( CancelledKeyException e ) {
+			// an other thread may cancel the key
+		} catch ( ClosedByInterruptException e ) {
+			throw new InterruptedException(); // do the same stuff as when InterruptedException is thrown
+		} catch ( IOException ex ) {
+			if( key != null )
+				key.cancel();
+			handleIOException( key, conn, ex );
+		}
+		return keyCount;
+	}
+
+	/**
+	 * Drains a connection whose last read filled a whole buffer with scattering reads of the rest of the {@link #readBudget}.
+	 * The number of buffers per read starts small and doubles as long as the reads fill all of them, so a socket which has little more to read does not cost many buffers.
+	 */
+	private void readScattering( WebSocketImpl ws, List<WebSocketImpl> paused ) throws IOException, InterruptedException {
+		if( !( ws.channel instanceof ScatteringByteChannel ) )
 			return;
+		ScatteringByteChannel channel = (ScatteringByteChannel) ws.channel;
+		int remaining = readBudget - WebSocketImpl.RCVBUF;
+		int count = 2;
+		while ( remaining > 0 && !ws.readPaused ) {
+			ByteBuffer[] bufs = new ByteBuffer[Math.min( count, ( remaining + WebSocketImpl.RCVBUF - 1 ) / WebSocketImpl.RCVBUF )];
+			for( int j = 0 ; j < bufs.length ; j++ ) {
+				bufs[j] = bufferPool.acquire( WebSocketImpl.RCVBUF );
+			}
+			long read;
+			try {
+				read = SocketChannelIOHelper.read( bufs, ws, channel );
+			} catch ( IOException e ) {
+				for( ByteBuffer buf : bufs ) {
+					bufferPool.release( buf );
+				}
+				throw e;
+			}
+			for( ByteBuffer buf : bufs ) {
+				if( buf.hasRemaining() )
+					decodeOrQueue( ws, buf, paused );
+				else
+					bufferPool.release( buf );
+			}
+			if( read < (long) bufs.length * WebSocketImpl.RCVBUF )
+				return;
+			remaining -= read;
+			count *= 2;
+		}
+	}
+
+	/**
+	 * Accepts the pending connections of the server socket, at most {@link #ACCEPT_BATCH} at once.
+	 * The accepted connections are registered with this thread's selector or handed over to the selector threads.
+	 */
+	private void accept( SelectionKey key ) throws IOException, InterruptedException {
+		for( int accepted = 0 ; accepted < ACCEPT_BATCH ; accepted++ ) {
+			if( !onConnect( key ) ) {
+				key.cancel();
+				break;
+			}
+
+			SocketChannel channel = server.accept();
+			if( channel == null ) {
+				break;
+			}
+			if( reactors.isEmpty() ) {
+				register( selector, channel );
+			} else {
+				leastLoadedReactor().assign( channel );
+			}
+		}
+		// wake every selector thread once for the whole batch
+		for( WebSocketReactor reactor : reactors ) {
+			reactor.wakeupIfAssigned();
+		}
+	}
+
+	private WebSocketReactor leastLoadedReactor() {
+		WebSocketReactor best = null;
+		for( WebSocketReactor reactor : reactors ) {
+			if( best == null || reactor.getLoad() < best.getLoad() ) {
+				best = reactor;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Registers an accepted connection with the given selector, must be called by the thread which selects it.
+	 */
+	private void register( Selector sel, SocketChannel channel ) throws IOException, InterruptedException {
+		channel.configureBlocking( false );
+		Socket socket = channel.socket();
+		socket.setTcpNoDelay( isTcpNoDelay() );
+		socket.setKeepAlive( true );
+		WebSocketImpl w = wsf.createWebSocket( this, drafts );
+		w.key = channel.register( sel, SelectionKey.OP_READ, w );
+		try {
+			w.channel = wsf.wrapChannel( channel, w.key );
+			allocateBuffers( w );
+		} catch (IOException ex) {
+			if( w.key != null )
+				w.key.cancel();
+
+			handleIOException( w.key, null, ex );
+		}
+	}
+	protected void allocateBuffers( WebSocket c ) throws InterruptedException {
+		synchronized ( buffers ) {
+			bufferedconnections++;
+			// every selector thread may hold a buffer while it reads
+			if( queuesize.get() >= 2 * decoders.size() + Math.max( 1, reactors.size() ) ) {
+				return;
+			}
+			queuesize.incrementAndGet();
+			buffers.put( createBuffer() );
 		}
-		queuesize.incrementAndGet();
-		buffers.put( createBuffer() );
 	}
 
 	protected void releaseBuffers( WebSocket c ) throws InterruptedException {
-		// queuesize.decrementAndGet();
-		// takeBuffer();
+		synchronized ( buffers ) {
+			bufferedconnections--;
+			// keep no more buffers than connections
+			if( queuesize.get() > bufferedconnections ) {
+				queuesize.decrementAndGet();
+				ByteBuffer buf = buffers.poll();
+				// otherwise the buffer is in use and released by pushBuffer
+				if( buf != null )
+					bufferPool.release( buf );
+			}
+		}
 	}
 
+	/**
+	 * Creates a buffer to read the connections into. The buffer is released to the {@link #getBufferPool() buffer pool} once it is not needed anymore.
+	 *
+	 * @return a buffer from the buffer pool
+	 */
 	public ByteBuffer createBuffer() {
-		return ByteBuffer.allocate( WebSocketImpl.RCVBUF );
+		return bufferPool.acquire( WebSocketImpl.RCVBUF );
+	}
+
+	/**
+	 * Decodes a read on the calling selector thread if it is small enough, otherwise hands it over to the thread which decodes the connection.
+	 * If the inQueue of the connection is full the buffer is kept in its backlog and the connection is not read until {@link #resume(List, List)} handed the backlog over.
+	 */
+	private void decodeOrQueue( WebSocketImpl ws, ByteBuffer buf, List<WebSocketImpl> paused ) throws InterruptedException {
+		if( !ws.backlog.isEmpty() ) {
+			// the data must not overtake the backlog
+			ws.backlog.add( buf );
+			return;
+		}
+		if( !isInline( ws, buf ) ) {
+			// the selector thread must not wait for the decoder, which may wait for the selector thread to write its replies
+			if( ws.inQueue.offer( buf ) ) {
+				queue( ws );
+			} else {
+				ws.backlog.add( buf );
+				ws.readPaused = true;
+				updateInterest( ws );
+				paused.add( ws );
+			}
+			return;
+		}
+		ws.inlineDecoder = Thread.currentThread();
+		try {
+			ws.decode( buf );
+		} catch ( Exception e ) {
+			System.err.println( "Error while reading from remote connection: " + e );
+			e.printStackTrace();
+		} finally {
+			ws.inlineDecoder = null;
+			pushBuffer( buf );
+		}
+	}
+
+	private boolean isInline( WebSocketImpl ws, ByteBuffer buf ) {
+		if( decoderExecutor == null && decoders.isEmpty() )
+			return true;
+		if( buf.remaining() > inlineDecodeThreshold )
+			return false;
+		// replies to a peer which reads slowly are sent by a thread which may wait for room in the outQueue
+		if( ws.outQueue.size() > ws.getOutQueueCapacity() / 2 )
+			return false;
+		// the data must not overtake data which was handed over before
+		if( decoderExecutor != null ) {
+			DecodeTask task = (DecodeTask) ws.decoderTask;
+			return task == null || task.isIdle();
+		}
+		WebSocketWorker worker = ws.workerThread;
+		return ws.inQueue.isEmpty() && ( worker == null || worker.decoding != ws );
 	}
 
 	protected void queue( WebSocketImpl ws ) throws InterruptedException {
-		if( ws.workerThread == null ) {
-			ws.workerThread = decoders.get( queueinvokes % decoders.size() );
-			queueinvokes++;
+		if( decoderExecutor != null ) {
+			DecodeTask task = (DecodeTask) ws.decoderTask;
+			if( task == null ) {
+				task = new DecodeTask( ws );
+				ws.decoderTask = task;
+			}
+			task.schedule();
+			return;
+		}
+		WebSocketWorker current = ws.workerThread;
+		if( current == null || isIdle( ws, current ) ) {
+			WebSocketWorker worker = assignment.assign( ws, current, decoders );
+			if( worker != null )
+				ws.workerThread = worker;
+			else if( current == null )
+				throw new IllegalStateException( "no worker was assigned to " + ws );
 		}
 		ws.workerThread.put( ws );
 	}
 
-	private ByteBuffer takeBuffer() throws InterruptedException {
-		return buffers.take();
+	/**
+	 * Returns whether the given worker neither decodes nor waits to decode data of the given connection, except for the buffer which was just queued.
+	 * Must be called by the thread which queues the buffers of the connection.
+	 */
+	private boolean isIdle( WebSocketImpl ws, WebSocketWorker worker ) {
+		// the worker marks the connection before it takes a buffer from the queue
+		return ws.inQueue.size() <= 1 && worker.decoding != ws;
+	}
+
+	/**
+	 * Hands the backlogs of the paused connections over as far as there is room in their inQueues and reads the connections again whose backlog is empty.
+	 * The decoding threads wake the selector up when they take a buffer of a paused connection.
+	 */
+	private void resume( List<WebSocketImpl> paused, List<WebSocketImpl> needRead ) throws InterruptedException {
+		Iterator<WebSocketImpl> it = paused.iterator();
+		while ( it.hasNext() ) {
+			WebSocketImpl ws = it.next();
+			ByteBuffer buf;
+			if( !ws.key.isValid() ) {
+				// the connection is closed, its data is dropped
+				while ( ( buf = ws.backlog.poll() ) != null ) {
+					pushBuffer( buf );
+				}
+				ws.readPaused = false;
+				it.remove();
+				continue;
+			}
+			while ( ( buf = ws.backlog.peek() ) != null && ws.inQueue.offer( buf ) ) {
+				ws.backlog.poll();
+				queue( ws );
+			}
+			if( buf != null )
+				continue;
+			it.remove();
+			ws.readPaused = false;
+			updateInterest( ws );
+			if( ws.channel instanceof WrappedByteChannel && ( (WrappedByteChannel) ws.channel ).isNeedRead() )
+				needRead.add( ws );
+		}
+	}
+
+	private void releaseBacklogs( List<WebSocketImpl> paused ) {
+		for( WebSocketImpl ws : paused ) {
+			ByteBuffer buf;
+			while ( ( buf = ws.backlog.poll() ) != null ) {
+				bufferPool.release( buf );
+			}
+		}
+		paused.clear();
+	}
+
+	/**
+	 * Sets the interest of the key of a connection according to its state.
+	 * The selector thread and the sending threads change the interest concurrently, so it is only changed here.
+	 */
+	private static void updateInterest( WebSocketImpl conn ) {
+		SelectionKey key = conn.key;
+		synchronized ( key ) {
+			int ops = conn.readPaused ? 0 : SelectionKey.OP_READ;
+			if( !conn.outQueue.isEmpty() || conn.channel instanceof WrappedByteChannel && ( (WrappedByteChannel) conn.channel ).isNeedWrite() )
+				ops |= SelectionKey.OP_WRITE;
+			key.interestOps( ops );
+		}
+	}
+
+	/**
+	 * Takes a buffer from the buffers which are kept for reading, or from the pool if they are all in use
+	 */
+	private ByteBuffer takeBuffer() {
+		ByteBuffer buf = buffers.poll();
+		return buf != null ? buf : createBuffer();
 	}
 
 	private void pushBuffer( ByteBuffer buf ) throws InterruptedException {
-		if( buffers.size() > queuesize.intValue() )
+		if( buffers.size() >= queuesize.intValue() ) {
+			bufferPool.release( buf );
 			return;
+		}
 		buffers.put( buf );
 	}
 
@@ -644,12 +1213,31 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 	public final void onWriteDemand( WebSocket w ) {
 		WebSocketImpl conn = (WebSocketImpl) w;
 		try {
-			conn.key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+			updateInterest( conn );
+			if( conn.outQueue.size() >= conn.getOutQueueCapacity() && isSelectorThread( conn ) ) {
+				// a callback on the selector thread which writes the queue must flush it itself
+				try {
+					SocketChannelIOHelper.batch( conn, conn.channel );
+				} catch ( IOException e ) {
+					conn.key.cancel();
+					handleIOException( conn.key, conn, e );
+				}
+			}
 		} catch ( CancelledKeyException e ) {
-			// the thread which cancels key is responsible for possible cleanup
-			conn.outQueue.clear();
+			// the thread which cancels key is responsible for possible cleanup,
+			// the queued buffers are dropped together with the connection
 		}
-		selector.wakeup();
+		conn.key.selector().wakeup();
+	}
+
+	/**
+	 * Returns whether the calling thread selects the key of the given connection
+	 */
+	private boolean isSelectorThread( WebSocketImpl conn ) {
+		Thread current = Thread.currentThread();
+		if( current instanceof WebSocketReactor )
+			return ( (WebSocketReactor) current ).selector == conn.key.selector();
+		return current == selectorthread && reactors.isEmpty();
 	}
 
 	@Override
@@ -851,6 +1439,187 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 		}
 	}
 
+	/**
+	 * Looks up SO_REUSEPORT on first use, the option was added to {@link StandardSocketOptions} in Java 9
+	 */
+	private static class ReusePort {
+
+		/**
+		 * The option, null if it is not supported
+		 */
+		static final SocketOption<Boolean> OPTION = find();
+
+		@SuppressWarnings("unchecked")
+		private static SocketOption<Boolean> find() {
+			try {
+				SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField( "SO_REUSEPORT" ).get( null );
+				ServerSocketChannel channel = ServerSocketChannel.open();
+				try {
+					return channel.supportedOptions().contains( option ) ? option : null;
+				} finally {
+					channel.close();
+				}
+			} catch ( NoSuchFieldException e ) {
+				return null;
+			} catch ( IllegalAccessException e ) {
+				return null;
+			} catch ( IOException e ) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * This class is used to read from and write to the connections which were registered with its selector
+	 */
+	private class WebSocketReactor extends Thread {
+
+		private final Selector selector;
+
+		/**
+		 * Connections which were accepted but not yet registered with {@link #selector}
+		 */
+		private final Queue<SocketChannel> assigned = new ConcurrentLinkedQueue<SocketChannel>();
+
+		private final AtomicInteger assignedCount = new AtomicInteger( 0 );
+
+		private final List<WebSocketImpl> needRead = new LinkedList<WebSocketImpl>();
+
+		private final List<WebSocketImpl> paused = new LinkedList<WebSocketImpl>();
+
+		private volatile int registered = 0;
+
+		public WebSocketReactor() throws IOException {
+			selector = Selector.open();
+			setName( "WebSocketSelector-" + getId() );
+			setDaemon( selectorthread.isDaemon() );
+		}
+
+		/**
+		 * @return the number of connections which are served by this thread
+		 */
+		public int getLoad() {
+			return registered + assignedCount.get();
+		}
+
+		/**
+		 * Hands an accepted connection over to this thread, which registers it after the next wakeup
+		 */
+		public void assign( SocketChannel channel ) {
+			assignedCount.incrementAndGet();
+			assigned.add( channel );
+		}
+
+		public void wakeupIfAssigned() {
+			if( !assigned.isEmpty() )
+				selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while ( !isInterrupted() ) {
+					SocketChannel channel;
+					while ( ( channel = assigned.poll() ) != null ) {
+						assignedCount.decrementAndGet();
+						try {
+							register( selector, channel );
+						} catch ( IOException e ) {
+							closeChannel( channel );
+						}
+					}
+					int keyCount = select( selector, needRead, paused, 0 );
+					if( keyCount > 0 && isclosed.get() )
+						reactorKeys.addAndGet( keyCount );
+					registered = selector.keys().size();
+				}
+			} catch ( InterruptedException e ) {
+				// the server is shutting down
+			} catch ( RuntimeException e ) {
+				handleFatal( null, e );
+			} finally {
+				SocketChannel channel;
+				while ( ( channel = assigned.poll() ) != null ) {
+					closeChannel( channel );
+				}
+				releaseBacklogs( paused );
+				try {
+					selector.close();
+				} catch ( IOException e ) {
+					onError( null, e );
+				}
+			}
+		}
+
+		private void closeChannel( SocketChannel channel ) {
+			try {
+				channel.close();
+			} catch ( IOException e ) {
+				// there is nothing that must be done here
+			}
+		}
+	}
+
+	/**
+	 * Decodes the received data of a connection on the {@link #decoderExecutor}
+	 */
+	private class DecodeTask implements Runnable {
+
+		private final WebSocketImpl ws;
+
+		/**
+		 * The number of buffers which were queued but not yet decoded, the task is scheduled while it is positive
+		 */
+		private final AtomicInteger pending = new AtomicInteger( 0 );
+
+		DecodeTask( WebSocketImpl ws ) {
+			this.ws = ws;
+		}
+
+		/**
+		 * @return whether all buffers which were queued were decoded
+		 */
+		boolean isIdle() {
+			return pending.get() == 0;
+		}
+
+		/**
+		 * Called after a buffer was added to the in queue of the connection
+		 */
+		void schedule() {
+			if( pending.getAndIncrement() == 0 )
+				decoderExecutor.execute( this );
+		}
+
+		@Override
+		public void run() {
+			int decoded = 0;
+			do {
+				if( decoded++ == DECODE_BATCH ) {
+					// let the other connections catch up
+					decoderExecutor.execute( this );
+					return;
+				}
+				ByteBuffer buf = ws.inQueue.poll();
+				assert ( buf != null );
+				if( ws.readPaused )
+					ws.key.selector().wakeup();
+				try {
+					ws.decode( buf );
+				} catch ( Exception e ) {
+					System.err.println( "Error while reading from remote connection: " + e );
+					e.printStackTrace();
+				} finally {
+					try {
+						pushBuffer( buf );
+					} catch ( InterruptedException e ) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			} while( pending.decrementAndGet() > 0 );
+		}
+	}
+
 	/**
 	 * This class is used to process incoming data
 	 */
@@ -858,8 +1627,18 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 
 		private BlockingQueue<WebSocketImpl> iqueue;
 
+		/**
+		 * The connections which did not fit into {@link #iqueue}, so the selector threads do not wait for the worker
+		 */
+		private final Queue<WebSocketImpl> overflow = new ConcurrentLinkedQueue<WebSocketImpl>();
+
+		/**
+		 * The connection whose data is decoded at the moment
+		 */
+		private volatile WebSocketImpl decoding;
+
 		public WebSocketWorker() {
-			iqueue = new LinkedBlockingQueue<WebSocketImpl>();
+			iqueue = new MpscArrayQueue<WebSocketImpl>( WORKERQUEUE_CAPACITY, WaitStrategy.PARK );
 			setName( "WebSocketWorker-" + getId() );
 			setUncaughtExceptionHandler( new UncaughtExceptionHandler() {
 				@Override
@@ -871,8 +1650,23 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 			} );
 		}
 
+		/**
+		 * Queues a received buffer of the given connection to be decoded by this worker, without waiting
+		 */
 		public void put( WebSocketImpl ws ) throws InterruptedException {
-			iqueue.put( ws );
+			if( !iqueue.offer( ws ) )
+				overflow.add( ws );
+		}
+
+		/**
+		 * Returns the number of received buffers which wait to be decoded by this worker
+		 *
+		 * @return the number of waiting buffers
+		 * @since 1.4.1
+		 */
+		public int getQueueDepth() {
+			int depth = iqueue.size();
+			return overflow.isEmpty() ? depth : depth + overflow.size();
 		}
 
 		@Override
@@ -881,9 +1675,20 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 			try {
 				while ( true ) {
 					ByteBuffer buf;
-					ws = iqueue.take();
+					ws = iqueue.poll();
+					if( ws == null )
+						ws = overflow.poll();
+					if( ws == null ) {
+						// a connection may be put into the overflow while the worker waits
+						ws = iqueue.poll( OVERFLOW_CHECK_MILLIS, TimeUnit.MILLISECONDS );
+						if( ws == null )
+							continue;
+					}
+					decoding = ws;
 					buf = ws.inQueue.poll();
 					assert ( buf != null );
+					if( ws.readPaused )
+						ws.key.selector().wakeup();
 					try {
 						ws.decode( buf );
 					} catch(Exception e){
@@ -892,6 +1697,7 @@ public abstract class WebSocketServer extends AbstractWebSocket implements Runna
 					}
 					
 					finally {
+						decoding = null;
 						pushBuffer( buf );
 					}
 				}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.server;
+
+import java.util.List;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.server.WebSocketServer.WebSocketWorker;
+
+/**
+ * Decides which {@link WebSocketWorker} decodes the received data of a connection.
+ * <p>
+ * The strategy is asked for a new connection and again whenever the connection has no received data waiting or being decoded,
+ * so it can be moved to another worker without changing the order in which its data is decoded.
+ *
+ * @see WebSocketServer#setWorkerAssignmentStrategy(WorkerAssignmentStrategy)
+ * @since 1.4.1
+ */
+public interface WorkerAssignmentStrategy {
+
+	/**
+	 * Chooses the worker for a connection.
+	 *
+	 * @param conn    the connection which received data
+	 * @param current the worker which decoded the data of the connection so far, null for a new connection
+	 * @param workers the workers of the server
+	 * @return the worker which decodes the data of the connection from now on, current to keep it
+	 */
+	WebSocketWorker assign( WebSocket conn, WebSocketWorker current, List<WebSocketWorker> workers );
+}
@@ -1181,6 +1181,7 @@ public class Base64
         private boolean breakLines;     // Break lines at less than 80 characters
         private int     options;        // Record options used to create the stream.
         private byte[]  decodabet;      // Local copies to avoid extra method calls
+        private byte[]  scratch;        // Reused input bytes of the next conversion
         
         
         /**
@@ -1225,6 +1226,7 @@ public class Base64
             this.position     = -1;
             this.lineLength   = 0;
             this.decodabet    = getDecodabet(options);
+            this.scratch      = new byte[4];
         }   // end constructor
         
         /**
@@ -1240,7 +1242,7 @@ public class Base64
             // Do we need to get data?
             if( position < 0 ) {
                 if( encode ) {
-                    byte[] b3 = new byte[3];
+                    byte[] b3 = scratch;
                     int numBinaryBytes = 0;
                     for( int i = 0; i < 3; i++ ) {
                         int b = in.read();
@@ -1267,7 +1269,7 @@ public class Base64
                 
                 // Else decoding
                 else {
-                    byte[] b4 = new byte[4];
+                    byte[] b4 = scratch;
                     int i;
                     for( i = 0; i < 4; i++ ) {
                         // Read four "meaningful" bytes:
@@ -1392,6 +1394,9 @@ public class Base64
         private boolean suspendEncoding;
         private int     options;    // Record for later
         private byte[]  decodabet;  // Local copies to avoid extra method calls
+        private byte[]  chunk;      // Encoded output of bulk writes
+        
+        private final static int CHUNK_SIZE = 1024; // Multiple of four
         
         /**
          * Constructs a {@link Base64.OutputStream} in ENCODE mode.
@@ -1514,6 +1519,35 @@ public class Base64
                 return;
             }   // end if: supsended
             
+            // Without line breaks whole groups of three bytes can be
+            // encoded into a chunk and handed on with a single write
+            if( encode && !breakLines ) {
+                while( position > 0 && len > 0 ) {
+                    write( theBytes[ off++ ] );
+                    len--;
+                }   // end while: complete the partially filled buffer
+                
+                if( len >= 3 && chunk == null ) {
+                    chunk = new byte[ CHUNK_SIZE ];
+                }   // end if: first bulk write
+                
+                int chunkPos = 0;
+                while( len >= 3 ) {
+                    encode3to4( theBytes, off, 3, chunk, chunkPos, options );
+                    off      += 3;
+                    len      -= 3;
+                    chunkPos += 4;
+                    if( chunkPos == CHUNK_SIZE ) {
+                        this.out.write( chunk, 0, chunkPos );
+                        chunkPos = 0;
+                    }   // end if: chunk full
+                }   // end while: each group of three bytes
+                
+                if( chunkPos > 0 ) {
+                    this.out.write( chunk, 0, chunkPos );
+                }   // end if: chunk partially full
+            }   // end if: encoding without line breaks
+            
             for( int i = 0; i < len; i++ ) {
                 write( theBytes[ off + i ] );
             }   // end for: each byte written
@@ -1556,6 +1590,7 @@ public class Base64
             super.close();
             
             buffer = null;
+            chunk  = null;
             out    = null;
         }   // end close
         
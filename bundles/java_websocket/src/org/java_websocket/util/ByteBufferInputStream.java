@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.java_websocket.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream which reads the remaining bytes of a ByteBuffer.
+ * <p>
+ * Reading advances the position of the buffer, use a duplicate if the buffer is still needed afterwards.
+ *
+ * @since 1.4.1
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	/**
+	 * The buffer to read from
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * Constructor for a stream over the remaining bytes of a buffer
+	 *
+	 * @param buffer the buffer to read from
+	 */
+	public ByteBufferInputStream( ByteBuffer buffer ) {
+		if( buffer == null ) {
+			throw new IllegalArgumentException();
+		}
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		if( !buffer.hasRemaining() ) {
+			return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) {
+		if( off < 0 || len < 0 || len > b.length - off ) {
+			throw new IndexOutOfBoundsException();
+		}
+		if( len == 0 ) {
+			return 0;
+		}
+		if( !buffer.hasRemaining() ) {
+			return -1;
+		}
+		int n = Math.min( len, buffer.remaining() );
+		buffer.get( b, off, n );
+		return n;
+	}
+
+	@Override
+	public long skip( long n ) {
+		if( n <= 0 ) {
+			return 0;
+		}
+		int skipped = ( int ) Math.min( n, buffer.remaining() );
+		buffer.position( buffer.position() + skipped );
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+}
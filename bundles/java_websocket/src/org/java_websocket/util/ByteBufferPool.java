@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of heap or direct ByteBuffers which is safe to use from several threads.
+ * <p>
+ * The buffers are grouped in size classes which are powers of two from {@link #MIN_SIZE_CLASS} up to the largest size class of the pool.
+ * A request is served with a buffer of the smallest size class which fits, larger requests are allocated without pooling.
+ * Every size class retains a bounded number of released buffers, further buffers are left to the garbage collector.
+ * <p>
+ * Direct buffers spare the copy which the JDK does from a temporary direct buffer on every read of a socket into a heap buffer,
+ * but they are expensive to allocate and should only be used with pooling.
+ * <p>
+ * With leak tracking the pool remembers where every outstanding buffer was acquired.
+ * A buffer which is garbage collected without being released is reported on System.err, releasing a buffer twice throws an exception.
+ * Leak tracking is meant for debugging, it costs a stack trace per acquired buffer.
+ *
+ * @since 1.4.1
+ */
+public class ByteBufferPool {
+
+	/**
+	 * The size of the smallest size class
+	 */
+	public static final int MIN_SIZE_CLASS = 1024;
+
+	/**
+	 * Whether the pool hands out direct buffers
+	 */
+	private final boolean direct;
+
+	/**
+	 * The released buffers of every size class, the smallest first
+	 */
+	private final Queue<ByteBuffer>[] free;
+
+	/**
+	 * The number of buffers in each queue of {@link #free}
+	 */
+	private final AtomicInteger[] retained;
+
+	/**
+	 * The maximum number of buffers each size class retains
+	 */
+	private final int[] maxRetained;
+
+	/**
+	 * The number of buffers which were acquired but not released
+	 */
+	private final AtomicInteger outstanding = new AtomicInteger( 0 );
+
+	/**
+	 * The number of buffers which were garbage collected without being released
+	 */
+	private final AtomicInteger leaks = new AtomicInteger( 0 );
+
+	/**
+	 * The outstanding buffers, null without leak tracking
+	 */
+	private final Set<TrackedBuffer> tracked;
+
+	/**
+	 * Receives the outstanding buffers which were garbage collected
+	 */
+	private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+
+	/**
+	 * Creates a pool with size classes up to 64 KiB, each retaining up to 4 MiB, without leak tracking
+	 *
+	 * @param direct whether the pool hands out direct buffers
+	 */
+	public ByteBufferPool( boolean direct ) {
+		this( direct, 1 << 16, 1 << 22, false );
+	}
+
+	/**
+	 * Creates a pool
+	 *
+	 * @param direct       whether the pool hands out direct buffers
+	 * @param maxSizeClass the size of the largest size class, rounded up to a power of two
+	 * @param maxRetained  the maximum number of bytes each size class retains, at least one buffer is retained per size class
+	 * @param leakTracking whether buffers which are not released are reported
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ByteBufferPool( boolean direct, int maxSizeClass, int maxRetained, boolean leakTracking ) {
+		if( maxSizeClass < MIN_SIZE_CLASS || maxSizeClass > 1 << 30 || maxRetained < 0 ) {
+			throw new IllegalArgumentException( "the largest size class must be between " + MIN_SIZE_CLASS + " and 2^30 bytes and the retained bytes must not be negative" );
+		}
+		this.direct = direct;
+		int classes = sizeClass( maxSizeClass ) + 1;
+		this.free = new Queue[classes];
+		this.retained = new AtomicInteger[classes];
+		this.maxRetained = new int[classes];
+		for( int i = 0; i < classes; i++ ) {
+			free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			retained[i] = new AtomicInteger( 0 );
+			this.maxRetained[i] = Math.max( 1, maxRetained / ( MIN_SIZE_CLASS << i ) );
+		}
+		this.tracked = leakTracking ? Collections.newSetFromMap( new ConcurrentHashMap<TrackedBuffer, Boolean>() ) : null;
+	}
+
+	/**
+	 * Acquire a buffer which must be handed back with {@link #release(ByteBuffer)} once it is not used anymore
+	 *
+	 * @param size the number of bytes needed
+	 * @return a buffer with position 0 and limit size, its capacity may be larger
+	 */
+	public ByteBuffer acquire( int size ) {
+		if( size < 0 ) {
+			throw new IllegalArgumentException( "size must not be negative" );
+		}
+		ByteBuffer buf = null;
+		int sizeClass = sizeClass( size );
+		if( sizeClass < free.length ) {
+			buf = free[sizeClass].poll();
+			if( buf != null ) {
+				retained[sizeClass].decrementAndGet();
+			} else {
+				buf = allocate( MIN_SIZE_CLASS << sizeClass );
+			}
+		} else {
+			buf = allocate( size );
+		}
+		buf.clear();
+		buf.limit( size );
+		outstanding.incrementAndGet();
+		if( tracked != null ) {
+			expungeCollected();
+			tracked.add( new TrackedBuffer( buf, collected ) );
+		}
+		return buf;
+	}
+
+	/**
+	 * Hand a buffer back to the pool. The buffer must not be used after it was released.
+	 *
+	 * @param buf a buffer which was acquired from this pool
+	 * @throws IllegalArgumentException if leak tracking is enabled and the buffer is not outstanding
+	 */
+	public void release( ByteBuffer buf ) {
+		if( tracked != null && !tracked.remove( new TrackedBuffer( buf, null ) ) ) {
+			throw new IllegalArgumentException( "the buffer was not acquired from this pool or was already released" );
+		}
+		outstanding.decrementAndGet();
+		int capacity = buf.capacity();
+		if( buf.isDirect() != direct || buf.isReadOnly() || Integer.bitCount( capacity ) != 1 || capacity < MIN_SIZE_CLASS ) {
+			return;
+		}
+		int sizeClass = sizeClass( capacity );
+		if( sizeClass >= free.length ) {
+			return;
+		}
+		if( retained[sizeClass].incrementAndGet() > maxRetained[sizeClass] ) {
+			retained[sizeClass].decrementAndGet();
+			return;
+		}
+		free[sizeClass].offer( buf );
+	}
+
+	/**
+	 * @return whether the pool hands out direct buffers
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return whether buffers which are not released are reported
+	 */
+	public boolean isLeakTracking() {
+		return tracked != null;
+	}
+
+	/**
+	 * @return the number of buffers which were acquired but not released
+	 */
+	public int getOutstanding() {
+		if( tracked != null ) {
+			expungeCollected();
+		}
+		return outstanding.get();
+	}
+
+	/**
+	 * @return the number of buffers the pool retains for reuse
+	 */
+	public int getRetained() {
+		int count = 0;
+		for( AtomicInteger r : retained ) {
+			count += r.get();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of buffers which were garbage collected without being released, always 0 without leak tracking
+	 */
+	public int getLeaks() {
+		if( tracked != null ) {
+			expungeCollected();
+		}
+		return leaks.get();
+	}
+
+	private ByteBuffer allocate( int capacity ) {
+		return direct ? ByteBuffer.allocateDirect( capacity ) : ByteBuffer.allocate( capacity );
+	}
+
+	/**
+	 * @return the index of the smallest size class which holds the given number of bytes
+	 */
+	private static int sizeClass( int size ) {
+		if( size <= MIN_SIZE_CLASS ) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros( size - 1 ) - Integer.numberOfTrailingZeros( MIN_SIZE_CLASS );
+	}
+
+	/**
+	 * Reports the outstanding buffers which were garbage collected
+	 */
+	private void expungeCollected() {
+		TrackedBuffer ref;
+		while( ( ref = (TrackedBuffer) collected.poll() ) != null ) {
+			if( tracked.remove( ref ) ) {
+				outstanding.decrementAndGet();
+				leaks.incrementAndGet();
+				System.err.println( "A ByteBuffer was garbage collected without being released to its pool" );
+				ref.acquisition.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Weakly references an outstanding buffer and remembers where it was acquired.
+	 * Two instances are equal if they reference the same buffer.
+	 */
+	private static class TrackedBuffer extends WeakReference<ByteBuffer> {
+
+		private final int hash;
+
+		private final Throwable acquisition;
+
+		TrackedBuffer( ByteBuffer buf, ReferenceQueue<ByteBuffer> queue ) {
+			super( buf, queue );
+			this.hash = System.identityHashCode( buf );
+			this.acquisition = queue == null ? null : new Throwable( "The buffer was acquired here" );
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			if( this == o ) {
+				return true;
+			}
+			if( !( o instanceof TrackedBuffer ) ) {
+				return false;
+			}
+			ByteBuffer buf = get();
+			return buf != null && buf == ( (TrackedBuffer) o ).get();
+		}
+	}
+}
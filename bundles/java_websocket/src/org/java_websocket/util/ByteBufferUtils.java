@@ -62,6 +62,19 @@ public class ByteBufferUtils {
 		}
 	}
 
+	/**
+	 * Copy the remaining bytes of a heap or direct ByteBuffer into a new array, the position of the buffer is not changed
+	 *
+	 * @param buffer the ByteBuffer to copy from
+	 * @return the remaining bytes
+	 * @since 1.4.1
+	 */
+	public static byte[] toArray( ByteBuffer buffer ) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get( bytes );
+		return bytes;
+	}
+
 	/**
 	 * Get a ByteBuffer with zero capacity
 	 *
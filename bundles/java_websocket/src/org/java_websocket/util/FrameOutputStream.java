@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.java_websocket.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable output stream which collects the payload of a single websocket message.
+ * <p>
+ * The first {@link #HEADROOM} bytes of the backing array are kept free so the frame header can be written in front of the payload
+ * once the message is complete. This allows a message to be serialized straight into the buffer which is later handed to the socket.
+ * <p>
+ * Once the buffer has been handed over with {@link #detach(int)} the stream starts over with a fresh array which is sized after the last message,
+ * so a stream which is reused for messages of similar size rarely has to grow its buffer.
+ *
+ * @since 1.4.1
+ */
+public class FrameOutputStream extends OutputStream {
+
+	/**
+	 * The maximum size of a RFC 6455 frame header (2 bytes base header, 8 bytes extended payload length, 4 bytes mask key)
+	 */
+	public static final int HEADROOM = 14;
+
+	/**
+	 * The default initial capacity of the payload
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * Upper bound for the capacity which is derived from the previous message
+	 */
+	private static final int MAX_CAPACITY_HINT = 1 << 20;
+
+	/**
+	 * The backing array, null until the first write after a detach
+	 */
+	private byte[] buf;
+
+	/**
+	 * The position of the next byte to write into buf
+	 */
+	private int count;
+
+	/**
+	 * The capacity to start with after the stream was created
+	 */
+	private final int initialCapacity;
+
+	/**
+	 * The capacity to use for the next backing array
+	 */
+	private int nextCapacity;
+
+	/**
+	 * Constructor for a stream with a default initial capacity
+	 */
+	public FrameOutputStream() {
+		this( DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Constructor for a stream with a specific initial capacity
+	 *
+	 * @param initialCapacity the expected size of the payload
+	 */
+	public FrameOutputStream( int initialCapacity ) {
+		if( initialCapacity < 0 ) {
+			throw new IllegalArgumentException( "Negative initial capacity: " + initialCapacity );
+		}
+		this.initialCapacity = HEADROOM + initialCapacity;
+		nextCapacity = this.initialCapacity;
+		count = HEADROOM;
+	}
+
+	private void ensureCapacity( int minCapacity ) {
+		if( minCapacity < 0 ) {
+			throw new OutOfMemoryError( "Message too large" );
+		}
+		if( buf == null ) {
+			buf = new byte[Math.max( nextCapacity, minCapacity )];
+		} else if( minCapacity > buf.length ) {
+			int newCapacity = buf.length << 1;
+			if( newCapacity < minCapacity ) {
+				newCapacity = minCapacity;
+			} else if( newCapacity < 0 ) {
+				newCapacity = Integer.MAX_VALUE;
+			}
+			buf = Arrays.copyOf( buf, newCapacity );
+		}
+	}
+
+	@Override
+	public void write( int b ) {
+		ensureCapacity( count + 1 );
+		buf[count++] = ( byte ) b;
+	}
+
+	@Override
+	public void write( byte[] b, int off, int len ) {
+		if( off < 0 || len < 0 || off + len > b.length || off + len < 0 ) {
+			throw new IndexOutOfBoundsException();
+		}
+		ensureCapacity( count + len );
+		System.arraycopy( b, off, buf, count, len );
+		count += len;
+	}
+
+	/**
+	 * Writes the remaining bytes of the given buffer to this stream
+	 *
+	 * @param src the buffer to copy from
+	 */
+	public void write( ByteBuffer src ) {
+		int len = src.remaining();
+		ensureCapacity( count + len );
+		src.get( buf, count, len );
+		count += len;
+	}
+
+	/**
+	 * Getter for the number of payload bytes written so far
+	 *
+	 * @return the payload size
+	 */
+	public int size() {
+		return count - HEADROOM;
+	}
+
+	/**
+	 * Getter for the backing array.
+	 * The payload starts at {@link #HEADROOM} and is {@link #size()} bytes long.
+	 *
+	 * @return the backing array
+	 */
+	public byte[] array() {
+		ensureCapacity( count );
+		return buf;
+	}
+
+	/**
+	 * Returns a view on the payload written so far
+	 *
+	 * @return the payload as ByteBuffer
+	 */
+	public ByteBuffer getPayload() {
+		return ByteBuffer.wrap( array(), HEADROOM, size() ).slice();
+	}
+
+	/**
+	 * Hands the backing array over to the caller and starts over with an empty payload.
+	 * The frame header has to be written into the <code>headerLength</code> bytes right in front of the payload before this call.
+	 *
+	 * @param headerLength the number of header bytes in front of the payload
+	 * @return a buffer containing the header and the payload
+	 */
+	public ByteBuffer detach( int headerLength ) {
+		if( headerLength < 0 || headerLength > HEADROOM ) {
+			throw new IllegalArgumentException( "Invalid header length: " + headerLength );
+		}
+		byte[] frame = array();
+		ByteBuffer result = ByteBuffer.wrap( frame, HEADROOM - headerLength, headerLength + size() ).slice();
+		nextCapacity = Math.max( initialCapacity, Math.min( count, MAX_CAPACITY_HINT ) );
+		buf = null;
+		count = HEADROOM;
+		return result;
+	}
+
+	/**
+	 * Discards the payload written so far, the backing array is kept
+	 */
+	public void reset() {
+		count = HEADROOM;
+	}
+}
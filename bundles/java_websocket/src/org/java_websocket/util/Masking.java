@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Applies the masking of RFC 6455 to frame payloads.
+ * <p>
+ * The mask key is handled as big endian int, so its first byte masks the first byte of the payload.
+ * The payload is XORed 8 bytes at a time using long reads and writes, the remaining bytes are masked one by one.
+ * Masking is its own inverse, the same methods are used to unmask.
+ *
+ * @since 1.4.1
+ */
+public final class Masking {
+
+	/**
+	 * Private constructor for static class
+	 */
+	private Masking() {
+	}
+
+	/**
+	 * Read a mask key
+	 *
+	 * @param array  the array containing the 4 bytes of the key
+	 * @param offset the offset of the key in the array
+	 * @return the key as big endian int
+	 */
+	public static int getKey( byte[] array, int offset ) {
+		return array[offset] << 24 | ( array[offset + 1] & 0xFF ) << 16 | ( array[offset + 2] & 0xFF ) << 8 | ( array[offset + 3] & 0xFF );
+	}
+
+	/**
+	 * Rotate a mask key so it can be applied to the part of a payload which starts at the given position
+	 *
+	 * @param key      the mask key of the frame
+	 * @param position the position of the first byte to mask relative to the start of the payload
+	 * @return the key which masks the byte at position with its first byte
+	 */
+	public static int rotate( int key, long position ) {
+		return Integer.rotateLeft( key, ( int ) ( position & 3 ) << 3 );
+	}
+
+	/**
+	 * Mask a part of an array in place
+	 *
+	 * @param array  the array to mask
+	 * @param offset the offset of the first byte to mask, this byte is masked with the first byte of the key
+	 * @param length the number of bytes to mask
+	 * @param key    the mask key
+	 */
+	public static void mask( byte[] array, int offset, int length, int key ) {
+		ByteBuffer buffer = ByteBuffer.wrap( array ).order( ByteOrder.nativeOrder() );
+		xor( buffer, offset, buffer, offset, length, key );
+	}
+
+	/**
+	 * Mask a part of a buffer in place.
+	 * The position and limit of the buffer are not changed.
+	 *
+	 * @param buffer the heap or direct buffer to mask
+	 * @param index  the index of the first byte to mask, this byte is masked with the first byte of the key
+	 * @param length the number of bytes to mask
+	 * @param key    the mask key
+	 */
+	public static void mask( ByteBuffer buffer, int index, int length, int key ) {
+		if( index < 0 || length < 0 || index > buffer.limit() - length ) {
+			throw new IndexOutOfBoundsException();
+		}
+		xor( buffer, index, buffer, index, length, key );
+	}
+
+	/**
+	 * Mask bytes while copying them from one buffer to another.
+	 * The positions of both buffers are advanced by length.
+	 *
+	 * @param src    the heap or direct buffer to read from
+	 * @param dst    the heap or direct buffer to write to
+	 * @param length the number of bytes to copy
+	 * @param key    the mask key, its first byte masks the byte at the position of src
+	 * @throws BufferUnderflowException if src has less than length bytes remaining
+	 * @throws BufferOverflowException  if dst has less than length bytes remaining
+	 */
+	public static void mask( ByteBuffer src, ByteBuffer dst, int length, int key ) {
+		if( src.remaining() < length ) {
+			throw new BufferUnderflowException();
+		}
+		if( dst.remaining() < length ) {
+			throw new BufferOverflowException();
+		}
+		int srcIndex = src.position();
+		int dstIndex = dst.position();
+		xor( src, srcIndex, dst, dstIndex, length, key );
+		src.position( srcIndex + length );
+		dst.position( dstIndex + length );
+	}
+
+	private static void xor( ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int length, int key ) {
+		int i = 0;
+		if( length >= 8 && src.order() == dst.order() ) {
+			long mask = ( long ) key << 32 | key & 0xFFFFFFFFL;
+			if( src.order() == ByteOrder.LITTLE_ENDIAN ) {
+				mask = Long.reverseBytes( mask );
+			}
+			for( int end = length - 7; i < end; i += 8 ) {
+				dst.putLong( dstIndex + i, src.getLong( srcIndex + i ) ^ mask );
+			}
+		}
+		// i is a multiple of 8, so the key starts over with its first byte
+		for( ; i < length; i++ ) {
+			dst.put( dstIndex + i, ( byte ) ( src.get( srcIndex + i ) ^ key >>> ( 24 - ( ( i & 3 ) << 3 ) ) ) );
+		}
+	}
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.util;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock free queue for many producers and a single consumer.
+ * <p>
+ * The elements are kept in a ring of slots. Producers claim a slot by advancing the tail and publish the element into it afterwards,
+ * the consumer takes elements from the head and frees their slots. Neither side allocates or takes a lock, unless it has to wait.
+ * <p>
+ * Only one thread at a time may remove elements, i.e. call {@link #poll()}, {@link #take()}, {@link #peek()}, {@link #drainTo(Collection)},
+ * {@link #clear()} or iterate the queue. Producers which find the queue full and the waiting consumer back off according to the {@link WaitStrategy}.
+ * A parked consumer is woken up by the next producer, a parked producer polls for free capacity.
+ *
+ * @param <E> the type of the elements
+ * @since 1.4.1
+ */
+public class MpscArrayQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+	/**
+	 * How long a producer parks before it checks the capacity again
+	 */
+	private static final long PRODUCER_PARK_NANOS = 50000;
+
+	private final AtomicReferenceArray<E> slots;
+
+	private final int capacity;
+
+	private final int mask;
+
+	private final WaitStrategy waitStrategy;
+
+	/**
+	 * The index of the next slot to be claimed by a producer
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The index of the next slot to be taken by the consumer, only written by the consumer
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The consumer while it is parked
+	 */
+	private volatile Thread waiter;
+
+	/**
+	 * @param capacity     the maximum number of elements, rounded up to the next power of two
+	 * @param waitStrategy what producers and the consumer do while they wait
+	 */
+	public MpscArrayQueue( int capacity, WaitStrategy waitStrategy ) {
+		if( capacity < 1 || capacity > 1 << 30 )
+			throw new IllegalArgumentException( "capacity out of range: " + capacity );
+		if( waitStrategy == null )
+			throw new IllegalArgumentException( "waitStrategy must not be null" );
+		int size = Integer.highestOneBit( capacity );
+		if( size < capacity )
+			size <<= 1;
+		this.slots = new AtomicReferenceArray<E>( size );
+		this.capacity = size;
+		this.mask = size - 1;
+		this.waitStrategy = waitStrategy;
+	}
+
+	@Override
+	public boolean offer( E e ) {
+		return offer( e, capacity );
+	}
+
+	/**
+	 * Inserts the element if the queue holds at most limit elements afterwards
+	 *
+	 * @param e     the element
+	 * @param limit the maximum size of the queue, values above the capacity are treated as the capacity
+	 * @return true if the element was added, false if there was no room
+	 */
+	public boolean offer( E e, int limit ) {
+		if( e == null )
+			throw new NullPointerException();
+		long t = claim( 1, limit );
+		if( t < 0 )
+			return false;
+		slots.lazySet( index( t ), e );
+		signal();
+		return true;
+	}
+
+	/**
+	 * Inserts all elements of the list as one contiguous run, so no element of another producer comes in between.
+	 * Either all elements are added or none.
+	 *
+	 * @param elements the elements in the order the consumer takes them
+	 * @param limit    the maximum size of the queue, values above the capacity are treated as the capacity
+	 * @return true if the elements were added, false if there was not enough room for all of them
+	 */
+	public boolean offerAll( List<? extends E> elements, int limit ) {
+		int n = elements.size();
+		for( int i = 0; i < n; i++ ) {
+			if( elements.get( i ) == null )
+				throw new NullPointerException();
+		}
+		if( n == 0 )
+			return true;
+		long t = claim( n, limit );
+		if( t < 0 )
+			return false;
+		for( int i = 0; i < n; i++ )
+			slots.lazySet( index( t + i ), elements.get( i ) );
+		signal();
+		return true;
+	}
+
+	/**
+	 * Claims n consecutive slots with a single update of the tail
+	 *
+	 * @return the index of the first claimed slot, -1 if the queue would hold more than limit elements
+	 */
+	private long claim( int n, int limit ) {
+		limit = Math.min( limit, capacity );
+		long t;
+		do {
+			t = tail.get();
+			// the head only moves forward, a stale head can only make the queue look fuller
+			if( t + n - head.get() > limit )
+				return -1;
+		} while( !tail.compareAndSet( t, t + n ) );
+		return t;
+	}
+
+	/**
+	 * Wakes up the consumer if it is parked
+	 */
+	private void signal() {
+		Thread w = waiter;
+		if( w != null )
+			LockSupport.unpark( w );
+	}
+
+	@Override
+	public void put( E e ) throws InterruptedException {
+		int attempt = 0;
+		while( !offer( e ) ) {
+			if( Thread.interrupted() )
+				throw new InterruptedException();
+			if( waitStrategy.idle( attempt++ ) )
+				LockSupport.parkNanos( this, PRODUCER_PARK_NANOS );
+		}
+	}
+
+	@Override
+	public boolean offer( E e, long timeout, TimeUnit unit ) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos( timeout );
+		int attempt = 0;
+		while( !offer( e ) ) {
+			if( Thread.interrupted() )
+				throw new InterruptedException();
+			long remaining = deadline - System.nanoTime();
+			if( remaining <= 0 )
+				return false;
+			if( waitStrategy.idle( attempt++ ) )
+				LockSupport.parkNanos( this, Math.min( remaining, PRODUCER_PARK_NANOS ) );
+		}
+		return true;
+	}
+
+	@Override
+	public E poll() {
+		long h = head.get();
+		int i = index( h );
+		E e = slots.get( i );
+		if( e == null ) {
+			if( h == tail.get() )
+				return null;
+			// the slot is claimed but the producer did not yet publish the element
+			do {
+				e = slots.get( i );
+			} while( e == null );
+		}
+		slots.lazySet( i, null );
+		head.lazySet( h + 1 );
+		return e;
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		E e;
+		int attempt = 0;
+		while( ( e = poll() ) == null ) {
+			if( Thread.interrupted() )
+				throw new InterruptedException();
+			if( waitStrategy.idle( attempt++ ) )
+				park( 0 );
+		}
+		return e;
+	}
+
+	@Override
+	public E poll( long timeout, TimeUnit unit ) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos( timeout );
+		E e;
+		int attempt = 0;
+		while( ( e = poll() ) == null ) {
+			if( Thread.interrupted() )
+				throw new InterruptedException();
+			long remaining = deadline - System.nanoTime();
+			if( remaining <= 0 )
+				return null;
+			if( waitStrategy.idle( attempt++ ) )
+				park( remaining );
+		}
+		return e;
+	}
+
+	/**
+	 * Parks the consumer until a producer publishes an element
+	 *
+	 * @param nanos the maximum time to park, 0 to park without timeout
+	 */
+	private void park( long nanos ) {
+		waiter = Thread.currentThread();
+		// a producer which did not see the waiter yet has already advanced the tail
+		if( isEmpty() ) {
+			if( nanos > 0 )
+				LockSupport.parkNanos( this, nanos );
+			else
+				LockSupport.park( this );
+		}
+		waiter = null;
+	}
+
+	@Override
+	public E peek() {
+		long h = head.get();
+		int i = index( h );
+		E e = slots.get( i );
+		if( e == null ) {
+			if( h == tail.get() )
+				return null;
+			do {
+				e = slots.get( i );
+			} while( e == null );
+		}
+		return e;
+	}
+
+	@Override
+	public int size() {
+		long h;
+		long t;
+		do {
+			h = head.get();
+			t = tail.get();
+		} while( h != head.get() );
+		return ( int ) ( t - h );
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return capacity - size();
+	}
+
+	@Override
+	public int drainTo( Collection<? super E> c ) {
+		return drainTo( c, Integer.MAX_VALUE );
+	}
+
+	@Override
+	public int drainTo( Collection<? super E> c, int maxElements ) {
+		if( c == null )
+			throw new NullPointerException();
+		if( c == this )
+			throw new IllegalArgumentException();
+		int n = 0;
+		E e;
+		while( n < maxElements && ( e = poll() ) != null ) {
+			c.add( e );
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns an iterator over the elements which were queued when the iterator was created, starting at the head. It does not support removal.
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return new Itr( head.get(), tail.get() );
+	}
+
+	private int index( long sequence ) {
+		return ( int ) sequence & mask;
+	}
+
+	private class Itr implements Iterator<E> {
+
+		private long next;
+
+		private final long end;
+
+		private E nextElement;
+
+		Itr( long start, long end ) {
+			this.next = start;
+			this.end = end;
+			advance();
+		}
+
+		private void advance() {
+			nextElement = null;
+			while( nextElement == null && next < end ) {
+				// the element was taken already if the head moved past it
+				if( next < head.get() ) {
+					next++;
+					continue;
+				}
+				// a slot which is claimed but not yet published is waited for, so no element is skipped
+				nextElement = slots.get( index( next ) );
+				if( nextElement != null )
+					next++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextElement != null;
+		}
+
+		@Override
+		public E next() {
+			if( nextElement == null )
+				throw new NoSuchElementException();
+			E e = nextElement;
+			advance();
+			return e;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2010-2017 Nathan Rajlich
+ *
+ *  Permission is hereby granted, free of charge, to any person
+ *  obtaining a copy of this software and associated documentation
+ *  files (the "Software"), to deal in the Software without
+ *  restriction, including without limitation the rights to use,
+ *  copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the
+ *  Software is furnished to do so, subject to the following
+ *  conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.java_websocket.util;
+
+/**
+ * Describes what a thread does while it waits for a {@link MpscArrayQueue} to become non empty or to have free capacity.
+ *
+ * @since 1.4.1
+ */
+public enum WaitStrategy {
+
+	/**
+	 * Keeps spinning. Reacts fastest but occupies a processor for as long as it waits.
+	 */
+	SPIN {
+		@Override
+		boolean idle( int attempt ) {
+			return false;
+		}
+	},
+
+	/**
+	 * Spins for a short while, then yields the processor to other threads.
+	 */
+	YIELD {
+		@Override
+		boolean idle( int attempt ) {
+			if( attempt >= SPINS )
+				Thread.yield();
+			return false;
+		}
+	},
+
+	/**
+	 * Spins and yields for a short while, then parks the thread. Suits threads which may stay idle for a long time.
+	 */
+	PARK {
+		@Override
+		boolean idle( int attempt ) {
+			if( attempt < SPINS )
+				return false;
+			if( attempt < SPINS + YIELDS ) {
+				Thread.yield();
+				return false;
+			}
+			return true;
+		}
+	};
+
+	private static final int SPINS = 64;
+
+	private static final int YIELDS = 16;
+
+	/**
+	 * Called by a thread which found nothing to do for the given number of times in a row.
+	 *
+	 * @param attempt the number of unsuccessful attempts so far
+	 * @return true if the thread should park now
+	 */
+	abstract boolean idle( int attempt );
+}